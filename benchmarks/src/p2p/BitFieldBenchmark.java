@@ -0,0 +1,118 @@
+package p2p;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Neighbor bitfields of a million pieces for a thousand neighbors, as java.util.BitSet and as CompactBitField. Setup
+ * prints the heap each set retains, measured after a full collection; the benchmarks time the lookups every HAVE and
+ * request makes. The swarms are all seeds, all fresh peers, peers downloading in order, and peers holding a random
+ * half, which is the worst case for the compact form.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BitFieldBenchmark {
+
+	@Param({ "SEEDS", "FRESH", "SEQUENTIAL", "RANDOM_HALF" })
+	private String swarm;
+
+	@Param({ "1000000" })
+	private int noOfPieces;
+
+	@Param({ "1000" })
+	private int neighbors;
+
+	private BitSet[] bitSets;
+	private CompactBitField[] compactBitFields;
+	private int[] lookups;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		final Random random = new Random(42);
+		final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+
+		final long before = usedHeap(memoryMXBean);
+		this.bitSets = new BitSet[this.neighbors];
+		for (int neighbor = 0; neighbor < this.neighbors; neighbor++) {
+			this.bitSets[neighbor] = this.newBitSet(random);
+		}
+		final long bitSetBytes = usedHeap(memoryMXBean) - before;
+
+		this.compactBitFields = new CompactBitField[this.neighbors];
+		for (int neighbor = 0; neighbor < this.neighbors; neighbor++) {
+			this.compactBitFields[neighbor] = CompactBitField.of(this.bitSets[neighbor], this.noOfPieces);
+		}
+		final long compactBytes = usedHeap(memoryMXBean) - before - bitSetBytes;
+		System.out.printf("%n%s: BitSet %,d bytes, CompactBitField %,d bytes%n", this.swarm, bitSetBytes,
+				compactBytes);
+
+		this.lookups = new int[1 << 16];
+		for (int i = 0; i < this.lookups.length; i++) {
+			this.lookups[i] = random.nextInt(this.noOfPieces);
+		}
+	}
+
+	private BitSet newBitSet(Random random) {
+		// Sized by its highest piece, as BitSet.valueOf made it from a BITFIELD
+		final BitSet bitSet = new BitSet();
+		switch (this.swarm) {
+			case "SEEDS":
+				bitSet.set(0, this.noOfPieces);
+				break;
+			case "SEQUENTIAL":
+				bitSet.set(0, random.nextInt(this.noOfPieces));
+				break;
+			case "RANDOM_HALF":
+				for (int pieceIndex = 0; pieceIndex < this.noOfPieces; pieceIndex++) {
+					if (random.nextBoolean()) {
+						bitSet.set(pieceIndex);
+					}
+				}
+				break;
+			default:
+				break;
+		}
+		return bitSet;
+	}
+
+	private static long usedHeap(MemoryMXBean memoryMXBean) {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return memoryMXBean.getHeapMemoryUsage().getUsed();
+	}
+
+	@Benchmark
+	public boolean getBitSet() {
+		final int i = this.next++;
+		return this.bitSets[i % this.neighbors].get(this.lookups[i & this.lookups.length - 1]);
+	}
+
+	@Benchmark
+	public boolean getCompactBitField() {
+		final int i = this.next++;
+		return this.compactBitFields[i % this.neighbors].get(this.lookups[i & this.lookups.length - 1]);
+	}
+
+}
@@ -0,0 +1,153 @@
+package p2p;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Wire protocol encode and decode. Run with -prof gc to see bytes allocated per message; the legacy decode is the
+ * byte[]-per-message path RemotePeerInfo used before MessageReader.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+
+	private byte[] havePayload;
+	private MessageReader messageReader;
+	private DataInputStream legacyInputStream;
+
+	@Setup
+	public void setup() throws IOException {
+		this.havePayload = ByteBuffer.allocate(4).putInt(42).array();
+
+		// Alternating HAVE and block REQUEST frames, the two messages a seeder receives most
+		final ByteBuffer frames = ByteBuffer.allocate(9 + 17);
+		frames.putInt(5).put((byte) Constants.ActualMessageType.HAVE.ordinal()).putInt(42);
+		frames.putInt(13).put((byte) Constants.ActualMessageType.REQUEST.ordinal()).putInt(42)
+				.putInt(Constants.BLOCK_SIZE).putInt(Constants.BLOCK_SIZE);
+		this.messageReader = new MessageReader(new LoopingChannel(frames.array()), new BufferPool(4));
+		this.legacyInputStream = new DataInputStream(new LoopingInputStream(frames.array()));
+	}
+
+	@Benchmark
+	public byte[] encodeHave() throws IOException {
+		return new ActualMessages(1 + this.havePayload.length, Constants.ActualMessageType.HAVE.ordinal(),
+				this.havePayload).getActualMessage();
+	}
+
+	@Benchmark
+	public int decodeMessageReader() throws IOException {
+		final MessageView messageView = this.messageReader.readMessage();
+		try {
+			return messageView.getPayloadInt(0);
+		}
+		finally {
+			messageView.release();
+		}
+	}
+
+	@Benchmark
+	public int decodeLegacy() throws IOException {
+		final byte[] messageLength = new byte[4];
+		this.legacyInputStream.readFully(messageLength);
+		final int length = ByteBuffer.wrap(messageLength).getInt();
+		final byte[] message = new byte[length];
+		this.legacyInputStream.readFully(message);
+		final byte[] payload = new byte[length - 1];
+		System.arraycopy(message, 1, payload, 0, length - 1);
+		final ActualMessages actualMessage = new ActualMessages(length, message[0], payload);
+		return ByteBuffer.wrap(actualMessage.getMessagePayload()).getInt();
+	}
+
+	@Benchmark
+	public HandShakeMessage handShakeRoundTrip() throws IOException {
+		final byte[] handShakeBytes = new HandShakeMessage("1001", Constants.EXTENSION_BLOCK_TRANSFERS)
+				.getHandShakeMessage();
+		final MessageReader messageReader = new MessageReader(
+				Channels.newChannel(new ByteArrayInputStream(handShakeBytes)), BufferPool.getDefault());
+		try {
+			return messageReader.readHandShakeMessage();
+		}
+		finally {
+			messageReader.close();
+		}
+	}
+
+	/*
+	 * Endless repetition of the same frames, so the socket layer is out of the picture.
+	 */
+	private static class LoopingChannel implements ReadableByteChannel {
+
+		private final byte[] frames;
+		private int position;
+
+		LoopingChannel(byte[] frames) {
+			this.frames = frames;
+		}
+
+		@Override
+		public int read(ByteBuffer destination) {
+			final int count = Math.min(destination.remaining(), this.frames.length - this.position);
+			destination.put(this.frames, this.position, count);
+			this.position = ( this.position + count ) % this.frames.length;
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+	private static class LoopingInputStream extends InputStream {
+
+		private final byte[] frames;
+		private int position;
+
+		LoopingInputStream(byte[] frames) {
+			this.frames = frames;
+		}
+
+		@Override
+		public int read() {
+			final int b = this.frames[this.position] & 0xff;
+			this.position = ( this.position + 1 ) % this.frames.length;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			final int count = Math.min(len, this.frames.length - this.position);
+			System.arraycopy(this.frames, this.position, b, off, count);
+			this.position = ( this.position + count ) % this.frames.length;
+			return count;
+		}
+
+	}
+
+}
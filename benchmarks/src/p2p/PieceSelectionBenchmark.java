@@ -0,0 +1,84 @@
+package p2p;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Cost of choosing the next piece to request, for a half-finished download from a neighbor that holds a random half
+ * of the file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PieceSelectionBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	private int noOfPieces;
+
+	private PeerManager peerManager;
+	private PieceAvailability pieceAvailability;
+	private BitSet interestedBits;
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(42);
+		final BitSet ownBitField = new BitSet(this.noOfPieces);
+		final BitSet neighborBitField = new BitSet(this.noOfPieces);
+		for (int pieceIndex = 0; pieceIndex < this.noOfPieces; pieceIndex++) {
+			if (pieceIndex < this.noOfPieces / 2) {
+				ownBitField.set(pieceIndex);
+			}
+			if (random.nextBoolean()) {
+				neighborBitField.set(pieceIndex);
+			}
+		}
+
+		// One-byte pieces, so the share has exactly noOfPieces of them
+		final Share share = new Share("TheFile.pdf", this.noOfPieces, 1, null, TimeUnit.SECONDS.toMillis(30));
+		this.pieceAvailability = share.getPieceAvailability();
+		for (int neighbor = 0; neighbor < 8; neighbor++) {
+			final BitSet bitField = new BitSet(this.noOfPieces);
+			for (int pieceIndex = 0; pieceIndex < this.noOfPieces; pieceIndex++) {
+				if (random.nextInt(4) != 0) {
+					bitField.set(pieceIndex);
+				}
+			}
+			this.pieceAvailability.addBitField(CompactBitField.of(bitField, this.noOfPieces));
+		}
+
+		share.getBitField().or(ownBitField);
+		final RemotePeerInfo remotePeerInfo = new RemotePeerInfo("1002");
+		remotePeerInfo.setBitField(CompactBitField.of(neighborBitField, this.noOfPieces));
+		this.peerManager = new PeerManager(remotePeerInfo, share);
+
+		this.interestedBits = (BitSet) neighborBitField.clone();
+		this.interestedBits.andNot(ownBitField);
+	}
+
+	@Benchmark
+	public boolean hasInterestingPiece() {
+		return this.peerManager.hasInterestingPiece();
+	}
+
+	@Benchmark
+	public int selectRarest() {
+		return this.pieceAvailability.selectRarest(this.interestedBits);
+	}
+
+}
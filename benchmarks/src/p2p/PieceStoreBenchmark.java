@@ -0,0 +1,78 @@
+package p2p;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Reading and writing whole pieces of a 64 MB file through the memory-mapped PieceStore, which replaced
+ * getPiece/putPiece. The file stays in the page cache, so this measures the copy, not the disk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PieceStoreBenchmark {
+
+	private static final long FILE_SIZE = 64L * 1024 * 1024;
+
+	@Param({ "32768", "1048576" })
+	private int pieceSize;
+
+	private File file;
+	private PieceStore pieceStore;
+	private byte[] piece;
+	private ByteBuffer pieceBuffer;
+
+	@Setup
+	public void setup() throws IOException {
+		this.file = File.createTempFile("PieceStoreBenchmark", ".dat");
+		this.pieceStore = new PieceStore(this.file.getPath(), FILE_SIZE, this.pieceSize, false);
+		this.piece = new byte[this.pieceSize];
+		ThreadLocalRandom.current().nextBytes(this.piece);
+		this.pieceBuffer = ByteBuffer.allocateDirect(this.pieceSize);
+		for (int pieceIndex = 0; pieceIndex < this.pieceStore.getNoOfPieces(); pieceIndex++) {
+			this.pieceStore.writePiece(pieceIndex, this.piece, 0, this.pieceSize);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		this.pieceStore.close();
+		this.file.delete();
+	}
+
+	@Benchmark
+	public ByteBuffer readPiece() throws IOException {
+		this.pieceBuffer.clear();
+		this.pieceStore.readPiece(this.randomPiece(), this.pieceBuffer);
+		return this.pieceBuffer;
+	}
+
+	@Benchmark
+	public void writePiece() throws IOException {
+		this.pieceStore.writePiece(this.randomPiece(), this.piece, 0, this.pieceSize);
+	}
+
+	private int randomPiece() {
+		return ThreadLocalRandom.current().nextInt(this.pieceStore.getNoOfPieces());
+	}
+
+}
@@ -0,0 +1,132 @@
+package p2p;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Blocking receive loops on platform versus virtual threads. Each connection is a Pipe read through a MessageReader
+ * on a thread from ThreadFactories, the way the blocking transport reads a socket; deliverHave sends one HAVE down
+ * every pipe and waits until all have been decoded. Setup prints the resident memory each parked receive loop costs.
+ * Virtual threads need a Java 21 runtime (java -jar benchmarks-jmh.jar ThreadMode); on 17 both modes run platform
+ * threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadModeBenchmark {
+
+	@Param({ "PLATFORM", "VIRTUAL" })
+	private Constants.ThreadMode threadMode;
+
+	// Each pipe costs two file descriptors
+	@Param({ "1000", "5000" })
+	private int connections;
+
+	private Pipe[] pipes;
+	private Thread[] threads;
+	private Semaphore delivered;
+	private ByteBuffer have;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, InterruptedException {
+		this.pipes = new Pipe[this.connections];
+		this.threads = new Thread[this.connections];
+		this.delivered = new Semaphore(0);
+		this.have = ByteBuffer.allocate(9).putInt(5).put((byte) Constants.ActualMessageType.HAVE.ordinal()).putInt(42);
+
+		final ThreadFactory threadFactory = ThreadFactories.newThreadFactory(this.threadMode, "Receive Loop ");
+		final BufferPool bufferPool = new BufferPool(this.connections);
+		final CountDownLatch started = new CountDownLatch(this.connections);
+		System.gc();
+		final long residentKiBBefore = residentKiB();
+		for (int i = 0; i < this.connections; i++) {
+			this.pipes[i] = Pipe.open();
+			final MessageReader messageReader = new MessageReader(this.pipes[i].source(), bufferPool);
+			this.threads[i] = threadFactory.newThread(() -> {
+				started.countDown();
+				try {
+					while (true) {
+						messageReader.readMessage().release();
+						this.delivered.release();
+					}
+				}
+				catch (final IOException e) {
+					// Pipe closed by tearDown
+				}
+			});
+			this.threads[i].start();
+		}
+		started.await();
+		System.gc();
+		final long residentKiBAfter = residentKiB();
+		if (residentKiBBefore > 0) {
+			System.out.printf("%n%s: %.1f KiB resident per parked receive loop%n", this.threadMode,
+					(double) ( residentKiBAfter - residentKiBBefore ) / this.connections);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException, InterruptedException {
+		for (final Pipe pipe : this.pipes) {
+			pipe.sink().close();
+		}
+		for (final Thread thread : this.threads) {
+			thread.join();
+		}
+		for (final Pipe pipe : this.pipes) {
+			pipe.source().close();
+		}
+	}
+
+	@Benchmark
+	public void deliverHave() throws IOException, InterruptedException {
+		for (final Pipe pipe : this.pipes) {
+			this.have.clear();
+			while (this.have.hasRemaining()) {
+				pipe.sink().write(this.have);
+			}
+		}
+		this.delivered.acquire(this.connections);
+	}
+
+	/*
+	 * VmRSS from /proc, or 0 where there is none.
+	 */
+	private static long residentKiB() throws IOException {
+		final Path status = Path.of("/proc/self/status");
+		if (!Files.exists(status)) {
+			return 0;
+		}
+		for (final String line : Files.readAllLines(status)) {
+			if (line.startsWith("VmRSS:")) {
+				return Long.parseLong(line.replaceAll("\\D", ""));
+			}
+		}
+		return 0;
+	}
+
+}
@@ -1,9 +0,0 @@
-
-public final class Constants {
-
-	public static final String HEADER_STRING = "P2PFILESHARINGPROJ";
-
-	public static enum ActualMessageType {
-		CHOKE, UNCHOKE, INTERESTED, NOT_INTERESTED, HAVE, BITFIELD, REQUEST, PIECE, TERMINATE;
-	}
-}
@@ -1,3 +1,5 @@
+package p2p;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -35,8 +37,7 @@ public class ActualMessages {
 	}
 
 	public Constants.ActualMessageType getMessageType() {
-		final int messageType = new Byte(this.messageType).intValue();
-		return Constants.ActualMessageType.values()[messageType];
+		return Constants.ActualMessageType.fromOrdinal(this.messageType);
 	}
 
 	public byte[] getMessagePayload() {
@@ -0,0 +1,175 @@
+package p2p;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/*
+ * Log handler that takes records off the calling thread. publish only claims a slot in a bounded ring with one atomic
+ * increment and stores the record; a single writer thread formats records, so parameterized messages are only ever
+ * built there, and writes them through one buffer, flushing whenever the ring runs dry rather than after every line.
+ * When the ring is full publish waits for room: dropping protocol events would make the log useless.
+ */
+public class AsyncLogHandler extends Handler {
+
+	private static final int DEFAULT_CAPACITY = 1 << 14;
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final AtomicReferenceArray<LogRecord> ring;
+	private final int mask;
+	// Next slot to claim, shared by producers; next slot to read, written only by the writer thread
+	private final AtomicLong tail;
+	private final AtomicLong head;
+	// Every record before this sequence has been flushed to the file
+	private volatile long flushedSequence;
+	private final Writer writer;
+	private final Thread writerThread;
+	private volatile boolean writerParked;
+	private volatile boolean closed;
+
+	public AsyncLogHandler(Path path) throws IOException {
+		this(path, DEFAULT_CAPACITY);
+	}
+
+	public AsyncLogHandler(Path path, int capacity) throws IOException {
+		final int ringCapacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.ring = new AtomicReferenceArray<>(ringCapacity);
+		this.mask = ringCapacity - 1;
+		this.tail = new AtomicLong();
+		this.head = new AtomicLong();
+		this.writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8),
+				64 * 1024);
+		this.writerThread = new Thread(this::writeLoop, "Thread - Log Writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if (this.closed || !this.isLoggable(record)) {
+			return;
+		}
+		final long sequence = this.tail.getAndIncrement();
+		while (sequence - this.head.get() >= this.ring.length()) {
+			this.wakeWriter();
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+		}
+		this.ring.set((int) sequence & this.mask, record);
+		if (this.writerParked) {
+			this.wakeWriter();
+		}
+	}
+
+	private void wakeWriter() {
+		this.writerParked = false;
+		LockSupport.unpark(this.writerThread);
+	}
+
+	private void writeLoop() {
+		while (true) {
+			final boolean wrote = this.drain();
+			if (!wrote) {
+				if (this.closed && this.head.get() == this.tail.get()) {
+					return;
+				}
+				this.writerParked = true;
+				// Re-checked after announcing the park, so a record published in between is not left waiting
+				if (this.isEmpty()) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+				this.writerParked = false;
+			}
+		}
+	}
+
+	/*
+	 * Writes every published record and flushes once. Returns false if there was nothing to write.
+	 */
+	private boolean drain() {
+		boolean wrote = false;
+		long sequence = this.head.get();
+		while (true) {
+			final int index = (int) sequence & this.mask;
+			final LogRecord record = this.ring.get(index);
+			if (record == null) {
+				// Not published yet, or the ring is empty
+				break;
+			}
+			this.ring.set(index, null);
+			this.head.set(++sequence);
+			this.write(record);
+			wrote = true;
+		}
+		if (wrote) {
+			try {
+				this.writer.flush();
+			}
+			catch (final IOException e) {
+				this.reportError(null, e, ErrorManager.FLUSH_FAILURE);
+			}
+			this.flushedSequence = sequence;
+		}
+		return wrote;
+	}
+
+	private boolean isEmpty() {
+		return this.ring.get((int) this.head.get() & this.mask) == null;
+	}
+
+	private void write(LogRecord record) {
+		try {
+			this.writer.write(this.getFormatter().format(record));
+		}
+		catch (final Exception e) {
+			this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+		}
+	}
+
+	/*
+	 * Waits until everything published before the call is in the file.
+	 */
+	@Override
+	public void flush() {
+		final long target = this.tail.get();
+		while (this.flushedSequence < target && this.writerThread.isAlive()) {
+			this.wakeWriter();
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+	}
+
+	/*
+	 * Drains the ring and closes the file. The LogManager calls this from its shutdown hook, so lines logged just
+	 * before the process exits are not lost with the daemon writer thread.
+	 */
+	@Override
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+		this.flush();
+		this.closed = true;
+		this.wakeWriter();
+		try {
+			this.writerThread.join(TimeUnit.SECONDS.toMillis(5));
+			this.writer.close();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (final IOException e) {
+			this.reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+package p2p;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock-free bitfield of the pieces this peer holds, read and updated by every connection of a share. Bits are set
+ * with a compare-and-set on their 64-bit word, and the cardinality is kept alongside so completion checks are O(1).
+ * Snapshots are taken word by word and may miss a bit set concurrently, never invent one.
+ */
+public class AtomicBitField {
+
+	private final int noOfPieces;
+	private final AtomicLongArray words;
+	private final AtomicInteger cardinality;
+
+	public AtomicBitField(int noOfPieces) {
+		this.noOfPieces = noOfPieces;
+		this.words = new AtomicLongArray(( noOfPieces + 63 ) >>> 6);
+		this.cardinality = new AtomicInteger();
+	}
+
+	public boolean get(int pieceIndex) {
+		return ( this.words.get(pieceIndex >>> 6) & 1L << pieceIndex ) != 0;
+	}
+
+	/*
+	 * Returns true if the bit was not set before, so exactly one caller sees each piece as new.
+	 */
+	public boolean set(int pieceIndex) {
+		final int wordIndex = pieceIndex >>> 6;
+		final long mask = 1L << pieceIndex;
+		long word;
+		do {
+			word = this.words.get(wordIndex);
+			if (( word & mask ) != 0) {
+				return false;
+			}
+		}
+		while (!this.words.compareAndSet(wordIndex, word, word | mask));
+		this.cardinality.incrementAndGet();
+		return true;
+	}
+
+	public boolean clear(int pieceIndex) {
+		final int wordIndex = pieceIndex >>> 6;
+		final long mask = 1L << pieceIndex;
+		long word;
+		do {
+			word = this.words.get(wordIndex);
+			if (( word & mask ) == 0) {
+				return false;
+			}
+		}
+		while (!this.words.compareAndSet(wordIndex, word, word & ~mask));
+		this.cardinality.decrementAndGet();
+		return true;
+	}
+
+	public void or(BitSet bitSet) {
+		for (int pieceIndex = bitSet.nextSetBit(0); pieceIndex >= 0
+				&& pieceIndex < this.noOfPieces; pieceIndex = bitSet.nextSetBit(pieceIndex + 1)) {
+			this.set(pieceIndex);
+		}
+	}
+
+	/*
+	 * Returns the first piece at or after fromIndex that is not set, or -1 if every one from there on is.
+	 */
+	public int nextClearBit(int fromIndex) {
+		if (fromIndex >= this.noOfPieces) {
+			return -1;
+		}
+		int wordIndex = fromIndex >>> 6;
+		long word = ~this.words.get(wordIndex) & -1L << fromIndex;
+		while (word == 0) {
+			if (++wordIndex == this.words.length()) {
+				return -1;
+			}
+			word = ~this.words.get(wordIndex);
+		}
+		final int pieceIndex = ( wordIndex << 6 ) + Long.numberOfTrailingZeros(word);
+		return pieceIndex < this.noOfPieces ? pieceIndex : -1;
+	}
+
+	/*
+	 * Clears every piece set here from bitSet, like BitSet.andNot without taking a snapshot first.
+	 */
+	public void removeFrom(BitSet bitSet) {
+		for (int wordIndex = 0; wordIndex < this.words.length(); wordIndex++) {
+			long word = this.words.get(wordIndex);
+			while (word != 0) {
+				bitSet.clear(( wordIndex << 6 ) + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+	}
+
+	public int cardinality() {
+		return this.cardinality.get();
+	}
+
+	public boolean isComplete() {
+		return this.cardinality.get() == this.noOfPieces;
+	}
+
+	public BitSet toBitSet() {
+		final long[] snapshot = new long[this.words.length()];
+		for (int wordIndex = 0; wordIndex < snapshot.length; wordIndex++) {
+			snapshot[wordIndex] = this.words.get(wordIndex);
+		}
+		return BitSet.valueOf(snapshot);
+	}
+
+}
@@ -0,0 +1,87 @@
+package p2p;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+ * Sidecar file recording which pieces of a partial download are complete, so a restarted leecher can resume. The
+ * layout is a 12-byte header (FileSize, PieceSize) followed by the bitfield in BitSet.toByteArray order. Each
+ * completed piece rewrites only the byte holding its bit, after the piece itself has been forced to disk, so a crash
+ * can lose a recorded piece but never record one whose data was lost.
+ */
+public class BitFieldStore {
+
+	private static final int HEADER_LENGTH = 12;
+
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel fileChannel;
+	private final byte[] bitField;
+	private final ByteBuffer byteBuffer;
+
+	/*
+	 * A sidecar written for a different FileSize or PieceSize is discarded.
+	 */
+	public BitFieldStore(String fileName, long fileSize, int pieceSize) throws IOException {
+		final int noOfPieces = (int) ( ( fileSize + pieceSize - 1 ) / pieceSize );
+		this.randomAccessFile = new RandomAccessFile(fileName, "rw");
+		this.fileChannel = this.randomAccessFile.getChannel();
+		this.bitField = new byte[( noOfPieces + 7 ) / 8];
+		this.byteBuffer = ByteBuffer.allocate(1);
+
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		if (this.fileChannel.size() == HEADER_LENGTH + this.bitField.length) {
+			this.fileChannel.read(header, 0);
+			header.flip();
+			if (header.getLong() == fileSize && header.getInt() == pieceSize) {
+				this.fileChannel.read(ByteBuffer.wrap(this.bitField), HEADER_LENGTH);
+				return;
+			}
+		}
+
+		header.clear();
+		header.putLong(fileSize).putInt(pieceSize).flip();
+		this.fileChannel.truncate(0);
+		this.fileChannel.write(header, 0);
+		this.fileChannel.write(ByteBuffer.wrap(this.bitField), HEADER_LENGTH);
+	}
+
+	public synchronized BitSet load() {
+		return BitSet.valueOf(this.bitField);
+	}
+
+	public synchronized void setPiece(int pieceIndex) throws IOException {
+		this.bitField[pieceIndex >>> 3] |= 1 << ( pieceIndex & 7 );
+		this.writeByte(pieceIndex >>> 3);
+	}
+
+	public synchronized void clearPiece(int pieceIndex) throws IOException {
+		this.bitField[pieceIndex >>> 3] &= ~( 1 << ( pieceIndex & 7 ) );
+		this.writeByte(pieceIndex >>> 3);
+	}
+
+	public synchronized void clear() throws IOException {
+		Arrays.fill(this.bitField, (byte) 0);
+		this.fileChannel.write(ByteBuffer.wrap(this.bitField), HEADER_LENGTH);
+	}
+
+	public void force() throws IOException {
+		this.fileChannel.force(false);
+	}
+
+	public void close() throws IOException {
+		this.force();
+		this.fileChannel.close();
+		this.randomAccessFile.close();
+	}
+
+	private void writeByte(int byteIndex) throws IOException {
+		this.byteBuffer.clear();
+		this.byteBuffer.put(this.bitField[byteIndex]).flip();
+		this.fileChannel.write(this.byteBuffer, HEADER_LENGTH + byteIndex);
+	}
+
+}
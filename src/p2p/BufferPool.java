@@ -0,0 +1,80 @@
+package p2p;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Size-classed pool of direct buffers. Each class holds power-of-two buffers; requests above the largest class are
+ * served with a one-off buffer that is simply dropped on release. The free lists are array backed, so acquiring and
+ * releasing a pooled buffer allocates nothing.
+ */
+public class BufferPool {
+
+	private static final int MIN_SIZE_CLASS_SHIFT = 6;
+	private static final int MAX_SIZE_CLASS_SHIFT = 22;
+	private static final int BUFFERS_PER_SIZE_CLASS = 64;
+
+	private static final BufferPool DEFAULT = new BufferPool(BUFFERS_PER_SIZE_CLASS);
+
+	private final ArrayBlockingQueue<PooledBuffer>[] freeLists;
+	private final AtomicLong allocatedBytes;
+	private final AtomicLong buffersInUse;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool(int buffersPerSizeClass) {
+		this.freeLists = new ArrayBlockingQueue[MAX_SIZE_CLASS_SHIFT - MIN_SIZE_CLASS_SHIFT + 1];
+		for (int i = 0; i < this.freeLists.length; i++) {
+			this.freeLists[i] = new ArrayBlockingQueue<>(buffersPerSizeClass);
+		}
+		this.allocatedBytes = new AtomicLong();
+		this.buffersInUse = new AtomicLong();
+	}
+
+	public static BufferPool getDefault() {
+		return DEFAULT;
+	}
+
+	/*
+	 * Returns a cleared buffer of at least capacity bytes with a reference count of one.
+	 */
+	public PooledBuffer acquire(int capacity) {
+		final int sizeClass = sizeClassOf(capacity);
+		this.buffersInUse.incrementAndGet();
+		if (sizeClass >= this.freeLists.length) {
+			this.allocatedBytes.addAndGet(capacity);
+			return new PooledBuffer(this, ByteBuffer.allocateDirect(capacity), false);
+		}
+
+		PooledBuffer pooledBuffer = this.freeLists[sizeClass].poll();
+		if (pooledBuffer == null) {
+			final int sizeClassCapacity = 1 << sizeClass + MIN_SIZE_CLASS_SHIFT;
+			this.allocatedBytes.addAndGet(sizeClassCapacity);
+			pooledBuffer = new PooledBuffer(this, ByteBuffer.allocateDirect(sizeClassCapacity), true);
+		}
+		pooledBuffer.reset();
+		return pooledBuffer;
+	}
+
+	void recycle(PooledBuffer pooledBuffer) {
+		this.buffersInUse.decrementAndGet();
+		if (pooledBuffer.isRecyclable()) {
+			// A full free list just lets the buffer go to the garbage collector
+			this.freeLists[sizeClassOf(pooledBuffer.getByteBuffer().capacity())].offer(pooledBuffer);
+		}
+	}
+
+	public long getAllocatedBytes() {
+		return this.allocatedBytes.get();
+	}
+
+	public long getBuffersInUse() {
+		return this.buffersInUse.get();
+	}
+
+	private static int sizeClassOf(int capacity) {
+		final int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+		return Math.max(shift, MIN_SIZE_CLASS_SHIFT) - MIN_SIZE_CLASS_SHIFT;
+	}
+
+}
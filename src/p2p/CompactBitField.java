@@ -0,0 +1,388 @@
+package p2p;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+ * A neighbor's pieces in whichever of three forms is smallest: nothing at all once it has every piece, sorted runs of
+ * held pieces while there are few of them, and a bitmap once the runs would take more room. Seeds and fresh peers,
+ * most of a large swarm, cost a few dozen bytes instead of noOfPieces / 8. The form only ever moves from runs to the
+ * bitmap, and from either to complete, so a HAVE never re-encodes anything.
+ *
+ * Set by the connection's receiving side and read by others, so every access is synchronized on the instance.
+ *
+ * Also the wire codec for the bitfield messages. BITFIELD carries the usual layout of noOfPieces / 8 bytes rounded
+ * up, piece 0 in the high bit of the first byte and spare bits zero. With the compact bitfield extension a peer sends
+ * HAVE_ALL or HAVE_NONE with no payload instead, or BITFIELD_RUNS, 4-byte (first piece, piece count) pairs, when
+ * that is shorter.
+ */
+public class CompactBitField {
+
+	private static final int[] NO_RUNS = new int[0];
+	private static final byte[] NO_BYTES = new byte[0];
+
+	private final int noOfPieces;
+	// Pairs of [start, end) in ascending order, never touching one another; null in the other forms
+	private int[] runs;
+	private int runCount;
+	// Non-null in bitmap form
+	private long[] words;
+	private int cardinality;
+
+	public CompactBitField(int noOfPieces) {
+		this.noOfPieces = noOfPieces;
+		this.runs = NO_RUNS;
+	}
+
+	public static CompactBitField complete(int noOfPieces) {
+		final CompactBitField compactBitField = new CompactBitField(noOfPieces);
+		compactBitField.runs = null;
+		compactBitField.cardinality = noOfPieces;
+		return compactBitField;
+	}
+
+	public static CompactBitField of(BitSet bitSet, int noOfPieces) {
+		final BitSet pieces = bitSet.get(0, noOfPieces);
+		final int cardinality = pieces.cardinality();
+		if (cardinality == noOfPieces) {
+			return complete(noOfPieces);
+		}
+		final CompactBitField compactBitField = new CompactBitField(noOfPieces);
+		compactBitField.cardinality = cardinality;
+		final int runCount = countRuns(pieces);
+		if (runCount > maxRuns(noOfPieces)) {
+			compactBitField.runs = null;
+			compactBitField.words = Arrays.copyOf(pieces.toLongArray(), wordCount(noOfPieces));
+			return compactBitField;
+		}
+		compactBitField.runs = new int[2 * runCount];
+		int run = 0;
+		for (int start = pieces.nextSetBit(0); start >= 0; start = pieces.nextSetBit(start)) {
+			final int end = pieces.nextClearBit(start);
+			compactBitField.runs[2 * run] = start;
+			compactBitField.runs[2 * run + 1] = end;
+			run++;
+			start = end;
+		}
+		compactBitField.runCount = runCount;
+		return compactBitField;
+	}
+
+	private static int wordCount(int noOfPieces) {
+		return ( noOfPieces + 63 ) >>> 6;
+	}
+
+	/*
+	 * Beyond this many runs, at 8 bytes each, the bitmap is smaller.
+	 */
+	private static int maxRuns(int noOfPieces) {
+		return wordCount(noOfPieces);
+	}
+
+	private static int countRuns(BitSet bitSet) {
+		int runCount = 0;
+		for (int start = bitSet.nextSetBit(0); start >= 0; start = bitSet.nextSetBit(bitSet.nextClearBit(start))) {
+			runCount++;
+		}
+		return runCount;
+	}
+
+	public synchronized boolean get(int pieceIndex) {
+		if (pieceIndex < 0 || pieceIndex >= this.noOfPieces) {
+			return false;
+		}
+		if (this.cardinality == this.noOfPieces) {
+			return true;
+		}
+		if (this.words != null) {
+			return ( this.words[pieceIndex >>> 6] & 1L << pieceIndex ) != 0;
+		}
+		final int run = this.findRun(pieceIndex);
+		return run >= 0 && pieceIndex < this.runs[2 * run + 1];
+	}
+
+	/*
+	 * The first piece held at or after fromIndex, or -1; walks the bitfield without copying it.
+	 */
+	public synchronized int nextSetBit(int fromIndex) {
+		if (fromIndex >= this.noOfPieces) {
+			return -1;
+		}
+		if (this.cardinality == this.noOfPieces) {
+			return fromIndex;
+		}
+		if (this.words != null) {
+			int wordIndex = fromIndex >>> 6;
+			long word = this.words[wordIndex] & -1L << fromIndex;
+			while (word == 0) {
+				if (++wordIndex == this.words.length) {
+					return -1;
+				}
+				word = this.words[wordIndex];
+			}
+			return ( wordIndex << 6 ) + Long.numberOfTrailingZeros(word);
+		}
+		final int run = this.findRun(fromIndex);
+		if (run >= 0 && fromIndex < this.runs[2 * run + 1]) {
+			return fromIndex;
+		}
+		return run + 1 < this.runCount ? this.runs[2 * run + 2] : -1;
+	}
+
+	/*
+	 * Returns true if the piece was not held before.
+	 */
+	public synchronized boolean set(int pieceIndex) {
+		if (pieceIndex < 0 || pieceIndex >= this.noOfPieces) {
+			throw new IndexOutOfBoundsException("Piece " + pieceIndex + " of " + this.noOfPieces);
+		}
+		if (this.get(pieceIndex)) {
+			return false;
+		}
+		if (++this.cardinality == this.noOfPieces) {
+			this.runs = null;
+			this.runCount = 0;
+			this.words = null;
+			return true;
+		}
+		if (this.words != null) {
+			this.words[pieceIndex >>> 6] |= 1L << pieceIndex;
+			return true;
+		}
+
+		final int previous = this.findRun(pieceIndex);
+		final int next = previous + 1;
+		final boolean joinsPrevious = previous >= 0 && this.runs[2 * previous + 1] == pieceIndex;
+		final boolean joinsNext = next < this.runCount && this.runs[2 * next] == pieceIndex + 1;
+		if (joinsPrevious && joinsNext) {
+			this.runs[2 * previous + 1] = this.runs[2 * next + 1];
+			System.arraycopy(this.runs, 2 * next + 2, this.runs, 2 * next, 2 * ( this.runCount - next - 1 ));
+			this.runCount--;
+		}
+		else if (joinsPrevious) {
+			this.runs[2 * previous + 1] = pieceIndex + 1;
+		}
+		else if (joinsNext) {
+			this.runs[2 * next] = pieceIndex;
+		}
+		else if (this.runCount == maxRuns(this.noOfPieces)) {
+			this.toWords();
+			this.words[pieceIndex >>> 6] |= 1L << pieceIndex;
+		}
+		else {
+			if (2 * this.runCount == this.runs.length) {
+				this.runs = Arrays.copyOf(this.runs, Math.max(4, 2 * this.runs.length));
+			}
+			System.arraycopy(this.runs, 2 * next, this.runs, 2 * next + 2, 2 * ( this.runCount - next ));
+			this.runs[2 * next] = pieceIndex;
+			this.runs[2 * next + 1] = pieceIndex + 1;
+			this.runCount++;
+		}
+		return true;
+	}
+
+	/*
+	 * Index of the last run starting at or before pieceIndex, or -1.
+	 */
+	private int findRun(int pieceIndex) {
+		int low = 0;
+		int high = this.runCount - 1;
+		while (low <= high) {
+			final int middle = ( low + high ) >>> 1;
+			if (this.runs[2 * middle] <= pieceIndex) {
+				low = middle + 1;
+			}
+			else {
+				high = middle - 1;
+			}
+		}
+		return high;
+	}
+
+	private void toWords() {
+		this.words = new long[wordCount(this.noOfPieces)];
+		for (int run = 0; run < this.runCount; run++) {
+			for (int pieceIndex = this.runs[2 * run]; pieceIndex < this.runs[2 * run + 1]; pieceIndex++) {
+				this.words[pieceIndex >>> 6] |= 1L << pieceIndex;
+			}
+		}
+		this.runs = null;
+		this.runCount = 0;
+	}
+
+	public synchronized int cardinality() {
+		return this.cardinality;
+	}
+
+	public synchronized boolean isEmpty() {
+		return this.cardinality == 0;
+	}
+
+	public synchronized boolean isComplete() {
+		return this.cardinality == this.noOfPieces;
+	}
+
+	/*
+	 * Overwrites bitSet with these pieces, reusing its storage rather than allocating a new set as toBitSet does.
+	 */
+	public synchronized void copyInto(BitSet bitSet) {
+		bitSet.clear();
+		if (this.cardinality == this.noOfPieces) {
+			bitSet.set(0, this.noOfPieces);
+		}
+		else if (this.words != null) {
+			for (int wordIndex = 0; wordIndex < this.words.length; wordIndex++) {
+				long word = this.words[wordIndex];
+				while (word != 0) {
+					bitSet.set(( wordIndex << 6 ) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+		else {
+			for (int run = 0; run < this.runCount; run++) {
+				bitSet.set(this.runs[2 * run], this.runs[2 * run + 1]);
+			}
+		}
+	}
+
+	public synchronized BitSet toBitSet() {
+		if (this.cardinality == this.noOfPieces) {
+			final BitSet bitSet = new BitSet(this.noOfPieces);
+			bitSet.set(0, this.noOfPieces);
+			return bitSet;
+		}
+		if (this.words != null) {
+			return BitSet.valueOf(this.words);
+		}
+		final BitSet bitSet = new BitSet(this.noOfPieces);
+		for (int run = 0; run < this.runCount; run++) {
+			bitSet.set(this.runs[2 * run], this.runs[2 * run + 1]);
+		}
+		return bitSet;
+	}
+
+	/*
+	 * Heap taken by the piece data, not counting the object itself.
+	 */
+	public synchronized long getDataBytes() {
+		if (this.words != null) {
+			return 8L * this.words.length;
+		}
+		return this.runs == null ? 0 : 4L * this.runs.length;
+	}
+
+	public static boolean isBitFieldMessage(Constants.ActualMessageType messageType) {
+		return messageType == Constants.ActualMessageType.BITFIELD
+				|| messageType == Constants.ActualMessageType.BITFIELD_RUNS
+				|| messageType == Constants.ActualMessageType.HAVE_ALL
+				|| messageType == Constants.ActualMessageType.HAVE_NONE;
+	}
+
+	/*
+	 * The shortest message for bitSet; BITFIELD unless the neighbor supports the compact forms.
+	 */
+	public static Constants.ActualMessageType selectMessageType(BitSet bitSet, int noOfPieces, boolean compact) {
+		if (!compact) {
+			return Constants.ActualMessageType.BITFIELD;
+		}
+		final int cardinality = bitSet.cardinality();
+		if (cardinality == noOfPieces) {
+			return Constants.ActualMessageType.HAVE_ALL;
+		}
+		if (cardinality == 0) {
+			return Constants.ActualMessageType.HAVE_NONE;
+		}
+		return 8L * countRuns(bitSet) < ( noOfPieces + 7 ) / 8 ? Constants.ActualMessageType.BITFIELD_RUNS
+				: Constants.ActualMessageType.BITFIELD;
+	}
+
+	/*
+	 * Payload of a message selectMessageType chose for bitSet, or null if it has none.
+	 */
+	public static byte[] encode(Constants.ActualMessageType messageType, BitSet bitSet, int noOfPieces) {
+		switch (messageType) {
+			case BITFIELD:
+				final byte[] bitField = new byte[( noOfPieces + 7 ) / 8];
+				for (int pieceIndex = bitSet.nextSetBit(0); pieceIndex >= 0
+						&& pieceIndex < noOfPieces; pieceIndex = bitSet.nextSetBit(pieceIndex + 1)) {
+					bitField[pieceIndex >>> 3] |= 0x80 >>> ( pieceIndex & 7 );
+				}
+				return bitField;
+
+			case BITFIELD_RUNS:
+				final ByteBuffer runs = ByteBuffer.allocate(8 * countRuns(bitSet));
+				for (int start = bitSet.nextSetBit(0); start >= 0; start = bitSet.nextSetBit(start)) {
+					final int end = bitSet.nextClearBit(start);
+					runs.putInt(start).putInt(end - start);
+					start = end;
+				}
+				return runs.array();
+
+			default:
+				return null;
+		}
+	}
+
+	/*
+	 * Rejects payloads that do not describe exactly noOfPieces pieces, as the neighbor and this peer then disagree
+	 * about the file.
+	 */
+	public static CompactBitField decode(Constants.ActualMessageType messageType, byte[] payload, int noOfPieces)
+			throws ProtocolException {
+		final byte[] bytes = payload == null ? NO_BYTES : payload;
+		switch (messageType) {
+			case HAVE_ALL:
+				return complete(noOfPieces);
+
+			case HAVE_NONE:
+				return new CompactBitField(noOfPieces);
+
+			case BITFIELD_RUNS:
+				if (bytes.length % 8 != 0) {
+					throw new ProtocolException("BITFIELD_RUNS payload of " + bytes.length + " bytes");
+				}
+				final BitSet runs = new BitSet(noOfPieces);
+				final ByteBuffer runBuffer = ByteBuffer.wrap(bytes);
+				while (runBuffer.hasRemaining()) {
+					final int start = runBuffer.getInt();
+					final int length = runBuffer.getInt();
+					if (start < 0 || length <= 0 || length > noOfPieces - start) {
+						throw new ProtocolException("Run of " + length + " pieces from " + start + " outside "
+								+ noOfPieces + " pieces");
+					}
+					runs.set(start, start + length);
+				}
+				return of(runs, noOfPieces);
+
+			default:
+				if (bytes.length != ( noOfPieces + 7 ) / 8) {
+					throw new ProtocolException("BITFIELD payload of " + bytes.length + " bytes for " + noOfPieces
+							+ " pieces");
+				}
+				final BitSet bitSet = new BitSet(noOfPieces);
+				for (int byteIndex = 0; byteIndex < bytes.length; byteIndex++) {
+					for (int bit = 0; bit < 8; bit++) {
+						if (( bytes[byteIndex] & 0x80 >>> bit ) != 0) {
+							bitSet.set(8 * byteIndex + bit);
+						}
+					}
+				}
+				if (bitSet.length() > noOfPieces) {
+					throw new ProtocolException("BITFIELD has spare bits set");
+				}
+				return of(bitSet, noOfPieces);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CompactBitField [noOfPieces=" + this.noOfPieces + ", cardinality=" + this.cardinality + ", form="
+				+ ( this.cardinality == this.noOfPieces ? "complete" : this.words != null ? "bitmap"
+						: this.runCount + " runs" )
+				+ "]";
+	}
+
+}
@@ -0,0 +1,73 @@
+package p2p;
+
+public final class Constants {
+
+	public static final String HEADER_STRING = "P2PFILESHARINGPROJ";
+
+	/*
+	 * Bit in the first reserved handshake byte advertising support for block-level REQUEST/PIECE/CANCEL payloads.
+	 */
+	public static final byte EXTENSION_BLOCK_TRANSFERS = 0x01;
+	public static final int BLOCK_SIZE = 16 * 1024;
+
+	/*
+	 * Bit in the first reserved handshake byte advertising that PEER_EXCHANGE messages are understood.
+	 */
+	public static final byte EXTENSION_PEER_EXCHANGE = 0x02;
+
+	/*
+	 * Bit in the first reserved handshake byte advertising that HAVE_ALL, HAVE_NONE and BITFIELD_RUNS are understood.
+	 */
+	public static final byte EXTENSION_COMPACT_BITFIELD = 0x04;
+
+	/*
+	 * Bit in the first reserved handshake byte advertising that pieces are verified and MANIFEST_REQUEST and MANIFEST
+	 * are understood.
+	 */
+	public static final byte EXTENSION_MANIFEST = 0x08;
+
+	/*
+	 * Reserved handshake bytes 1 to 8 carry the leading bytes of the share's info-hash.
+	 */
+	public static final int INFO_HASH_LENGTH = 8;
+
+	/*
+	 * Smallest frame limit ever applied, so every control message, PEER_EXCHANGE included, fits whatever the pieces.
+	 */
+	public static final int MIN_FRAME_SIZE = 64 * 1024;
+
+	public static enum ActualMessageType {
+		CHOKE, UNCHOKE, INTERESTED, NOT_INTERESTED, HAVE, BITFIELD, REQUEST, PIECE, TERMINATE, CANCEL, PEER_EXCHANGE,
+		HAVE_ALL, HAVE_NONE, BITFIELD_RUNS, MANIFEST_REQUEST, MANIFEST;
+
+		// values() clones the array on every call
+		private static final ActualMessageType[] VALUES = values();
+
+		public static ActualMessageType fromOrdinal(int ordinal) {
+			return VALUES[ordinal];
+		}
+
+		public static boolean isKnown(int ordinal) {
+			return ordinal >= 0 && ordinal < VALUES.length;
+		}
+	}
+
+	public static enum TransportMode {
+		BLOCKING, NIO;
+	}
+
+	public static enum ThreadMode {
+		PLATFORM, VIRTUAL;
+	}
+
+	public static enum PieceSelectionStrategy {
+		RANDOM, RAREST_FIRST;
+	}
+
+	public static enum FsyncPolicy {
+		// Each piece is forced before the resume sidecar records it, and the whole file once the download completes
+		NONE,
+		// As NONE, and also after every batch of write-behind writes, before their pieces are counted
+		BATCH;
+	}
+}
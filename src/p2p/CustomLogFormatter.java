@@ -0,0 +1,141 @@
+package p2p;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.logging.FileHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+public class CustomLogFormatter extends SimpleFormatter {
+
+	private static final DateTimeFormatter SECOND_FORMATTER = DateTimeFormatter.ofPattern("MM/dd/yyyy hh:mm:ss")
+			.withZone(ZoneId.systemDefault());
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private static Logger logger;
+
+	// Everything up to the milliseconds only changes once a second, so it is formatted once and reused
+	private volatile CachedSecond cachedSecond = new CachedSecond(Long.MIN_VALUE, null);
+
+	@Override
+	public String format(LogRecord record) {
+		final StringBuilder logBuilder = new StringBuilder(128);
+		logBuilder.append('[');
+		this.appendTimestamp(logBuilder, record.getMillis());
+		logBuilder.append("]: ");
+		appendMessage(logBuilder, record.getMessage(), record.getParameters());
+		return logBuilder.append(LINE_SEPARATOR).toString();
+	}
+
+	private void appendTimestamp(StringBuilder logBuilder, long millis) {
+		final long second = Math.floorDiv(millis, 1000);
+		CachedSecond cachedSecond = this.cachedSecond;
+		if (cachedSecond.second != second) {
+			cachedSecond = new CachedSecond(second, SECOND_FORMATTER.format(Instant.ofEpochSecond(second)));
+			this.cachedSecond = cachedSecond;
+		}
+		final int millisOfSecond = Math.floorMod(millis, 1000);
+		logBuilder.append(cachedSecond.text).append('.');
+		if (millisOfSecond < 100) {
+			logBuilder.append('0');
+		}
+		if (millisOfSecond < 10) {
+			logBuilder.append('0');
+		}
+		logBuilder.append(millisOfSecond);
+	}
+
+	/*
+	 * Substitutes {0}, {1}, ... with the parameters as String.valueOf prints them. Unlike MessageFormat this leaves
+	 * numbers without grouping separators, so "piece [1234]" is not logged as "piece [1,234]".
+	 */
+	private static void appendMessage(StringBuilder logBuilder, String message, Object[] parameters) {
+		if (message == null || parameters == null || parameters.length == 0) {
+			logBuilder.append(message);
+			return;
+		}
+		int start = 0;
+		int open;
+		while (( open = message.indexOf('{', start) ) >= 0) {
+			final int close = message.indexOf('}', open);
+			if (close < 0) {
+				break;
+			}
+			logBuilder.append(message, start, open);
+			int parameterIndex = -1;
+			try {
+				parameterIndex = Integer.parseInt(message.substring(open + 1, close));
+			}
+			catch (final NumberFormatException e) {
+				// Not a placeholder
+			}
+			if (parameterIndex >= 0 && parameterIndex < parameters.length) {
+				logBuilder.append(parameters[parameterIndex]);
+			}
+			else {
+				logBuilder.append(message, open, close + 1);
+			}
+			start = close + 1;
+		}
+		logBuilder.append(message, start, message.length());
+	}
+
+	@Override
+	public String getHead(Handler h) {
+		return super.getHead(h);
+	}
+
+	@Override
+	public String getTail(Handler h) {
+		return super.getTail(h);
+	}
+
+	/*
+	 * With async set, log_peer_<peer ID>.log is written by an AsyncLogHandler and records are not passed on to the
+	 * console handler, whose lock would otherwise still serialize every logging thread.
+	 */
+	public static void setupLogger(String peerId, boolean async) {
+		logger = Logger.getLogger(CustomLogFormatter.class.getName());
+		final StringBuilder path = new StringBuilder(System.getProperty("user.dir"));
+		path.append(File.separator).append("log_peer_").append(peerId).append(".log");
+		Handler handler = null;
+		try {
+			if (async) {
+				handler = new AsyncLogHandler(Path.of(path.toString()));
+				logger.setUseParentHandlers(false);
+			}
+			else {
+				handler = new FileHandler(path.toString());
+			}
+			handler.setFormatter(new CustomLogFormatter());
+			logger.addHandler(handler);
+		}
+		catch (final Exception e) {
+			// No handler was added, so this still reaches the console through the parent handlers
+			logger.log(Level.SEVERE, e, () -> "Could not create the log file " + path);
+		}
+	}
+
+	public static Logger getLogger() {
+		return logger;
+	}
+
+	private static class CachedSecond {
+
+		private final long second;
+		private final String text;
+
+		CachedSecond(long second, String text) {
+			this.second = second;
+			this.text = text;
+		}
+
+	}
+
+}
@@ -0,0 +1,205 @@
+package p2p;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Write-behind for received piece data. Receive threads and event loops copy each block into a pooled buffer and
+ * queue it; a single thread drains the queue in batches, sorts them by file offset and issues one gathering
+ * positional write per contiguous run. One writer serves every share; each request names the PieceStore it belongs
+ * to.
+ *
+ * The queue is bounded, so a slow disk pushes back on the senders instead of growing the heap. Every write needs a
+ * slot reserved first, so queueing it never blocks: a receive thread waits for a slot in reserve(), while an event
+ * loop, which must not wait, uses tryReserve() and stops reading the connection until it is called back. A slot is
+ * only freed once its block is written, together with its buffer, so at most queueSize block copies exist at once.
+ */
+public class DiskWriter extends Thread {
+
+	private static final Logger LOGGER = CustomLogFormatter.getLogger();
+	private static final int MAX_BATCH_SIZE = 64;
+
+	/*
+	 * Runs on the writer thread once the block is in the file (and forced to disk under FsyncPolicy BATCH).
+	 */
+	public interface WriteCallback {
+
+		void onWritten(boolean written) throws IOException;
+
+	}
+
+	private static final Comparator<WriteRequest> WRITE_ORDER = Comparator
+			.<WriteRequest> comparingInt(writeRequest -> System.identityHashCode(writeRequest.pieceStore))
+			.thenComparingLong(writeRequest -> writeRequest.fileOffset);
+
+	private final Constants.FsyncPolicy fsyncPolicy;
+	private final BlockingQueue<WriteRequest> writeQueue;
+	private final Semaphore freeSlots;
+	// Run, once each, when slots free up after a tryReserve failed
+	private final Queue<Runnable> slotListeners;
+	private final BufferPool bufferPool;
+	private volatile boolean terminated;
+
+	public DiskWriter(int queueSize, Constants.FsyncPolicy fsyncPolicy) {
+		this.fsyncPolicy = fsyncPolicy;
+		this.writeQueue = new ArrayBlockingQueue<>(queueSize);
+		this.freeSlots = new Semaphore(queueSize);
+		this.slotListeners = new ConcurrentLinkedQueue<>();
+		this.bufferPool = BufferPool.getDefault();
+		this.terminated = false;
+		this.setName("Thread - Disk Writer");
+		this.setDaemon(true);
+	}
+
+	/*
+	 * Waits for a free slot in the queue.
+	 */
+	public void reserve() throws IOException {
+		try {
+			this.freeSlots.acquire();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the disk writer", e);
+		}
+	}
+
+	/*
+	 * Takes a free slot if there is one. Otherwise returns false and runs onSlotFreed once one frees up; it may also
+	 * run after all if a slot frees up while this returns, so it must tolerate a spurious call.
+	 */
+	public boolean tryReserve(Runnable onSlotFreed) {
+		if (this.freeSlots.tryAcquire()) {
+			return true;
+		}
+		this.slotListeners.add(onSlotFreed);
+		// The writer may have freed slots between the attempt and the registration
+		return this.freeSlots.tryAcquire();
+	}
+
+	/*
+	 * Gives back a reserved slot that was not used for a write.
+	 */
+	public void unreserve() {
+		this.freeSlots.release();
+		this.notifySlotListeners();
+	}
+
+	/*
+	 * Copies length bytes at source[offset] and queues them for the given place in the piece, using a slot reserved
+	 * beforehand.
+	 */
+	public void write(PieceStore pieceStore, int pieceIndex, int offsetInPiece, ByteBuffer source, int offset,
+			int length, WriteCallback writeCallback) {
+		final PooledBuffer pooledBuffer = this.bufferPool.acquire(length);
+		final ByteBuffer byteBuffer = pooledBuffer.getByteBuffer();
+		byteBuffer.put(0, source, offset, length);
+		byteBuffer.limit(length);
+		// Never blocks: the queue has as many places as there are slots
+		final boolean queued = this.writeQueue.offer(new WriteRequest(pieceStore,
+				pieceStore.getPieceOffset(pieceIndex) + offsetInPiece, pooledBuffer, writeCallback));
+		assert queued;
+	}
+
+	private void notifySlotListeners() {
+		Runnable slotListener;
+		while (( slotListener = this.slotListeners.poll() ) != null) {
+			slotListener.run();
+		}
+	}
+
+	@Override
+	public void run() {
+		final List<WriteRequest> batch = new ArrayList<>(MAX_BATCH_SIZE);
+		final ByteBuffer[] sources = new ByteBuffer[MAX_BATCH_SIZE];
+		final Set<PieceStore> pieceStores = Collections.newSetFromMap(new IdentityHashMap<>());
+		while (!this.terminated) {
+			try {
+				batch.add(this.writeQueue.take());
+			}
+			catch (final InterruptedException e) {
+				break;
+			}
+			this.writeQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+			batch.sort(WRITE_ORDER);
+
+			boolean written = true;
+			try {
+				int runStart = 0;
+				while (runStart < batch.size()) {
+					final PieceStore pieceStore = batch.get(runStart).pieceStore;
+					long runEnd = batch.get(runStart).fileOffset;
+					int runLength = 0;
+					while (runStart + runLength < batch.size()
+							&& batch.get(runStart + runLength).pieceStore == pieceStore
+							&& batch.get(runStart + runLength).fileOffset == runEnd) {
+						final ByteBuffer source = batch.get(runStart + runLength).pooledBuffer.getByteBuffer();
+						sources[runLength++] = source;
+						runEnd += source.remaining();
+					}
+					pieceStore.write(batch.get(runStart).fileOffset, sources, 0, runLength);
+					pieceStores.add(pieceStore);
+					runStart += runLength;
+				}
+				if (this.fsyncPolicy == Constants.FsyncPolicy.BATCH) {
+					for (final PieceStore pieceStore : pieceStores) {
+						pieceStore.getFileChannel().force(false);
+					}
+				}
+			}
+			catch (final IOException e) {
+				LOGGER.log(Level.WARNING, "Could not write {0} blocks: {1}", new Object[] { batch.size(), e });
+				written = false;
+			}
+
+			for (final WriteRequest writeRequest : batch) {
+				writeRequest.pooledBuffer.release();
+				this.freeSlots.release();
+				try {
+					writeRequest.writeCallback.onWritten(written);
+				}
+				catch (final IOException e) {
+					LOGGER.log(Level.WARNING, "A write callback failed: {0}", e);
+				}
+			}
+			this.notifySlotListeners();
+			batch.clear();
+			pieceStores.clear();
+		}
+	}
+
+	public void shutdown() {
+		this.terminated = true;
+		this.interrupt();
+	}
+
+	private static class WriteRequest {
+
+		private final PieceStore pieceStore;
+		private final long fileOffset;
+		private final PooledBuffer pooledBuffer;
+		private final WriteCallback writeCallback;
+
+		WriteRequest(PieceStore pieceStore, long fileOffset, PooledBuffer pooledBuffer, WriteCallback writeCallback) {
+			this.pieceStore = pieceStore;
+			this.fileOffset = fileOffset;
+			this.pooledBuffer = pooledBuffer;
+			this.writeCallback = writeCallback;
+		}
+
+	}
+
+}
@@ -0,0 +1,48 @@
+package p2p;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/*
+ * A piece, or a block of one, that is still to be streamed from the PieceStore to a socket.
+ */
+public class FileRegion {
+
+	private final PieceStore pieceStore;
+	private final int pieceIndex;
+	private final int offsetInPiece;
+	private final int length;
+	private long transferred;
+
+	public FileRegion(PieceStore pieceStore, int pieceIndex, int offsetInPiece, int length) {
+		this.pieceStore = pieceStore;
+		this.pieceIndex = pieceIndex;
+		this.offsetInPiece = offsetInPiece;
+		this.length = length;
+		this.transferred = 0;
+	}
+
+	public long transferTo(WritableByteChannel target) throws IOException {
+		final long count = this.pieceStore.transferPiece(this.pieceIndex, this.offsetInPiece + this.transferred,
+				this.length - this.transferred, target);
+		this.transferred += count;
+		return count;
+	}
+
+	public boolean hasRemaining() {
+		return this.transferred < this.length;
+	}
+
+	public int getLength() {
+		return this.length;
+	}
+
+	public int getPieceIndex() {
+		return this.pieceIndex;
+	}
+
+	public int getOffsetInPiece() {
+		return this.offsetInPiece;
+	}
+
+}
@@ -1,3 +1,5 @@
+package p2p;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -9,10 +11,21 @@ public class HandShakeMessage {
 	private final byte[] peerId;
 
 	public HandShakeMessage(String peerId) {
+		this(peerId, (byte) 0);
+	}
+
+	public HandShakeMessage(String peerId, byte extensionFlags) {
+		this(peerId, extensionFlags, new byte[Constants.INFO_HASH_LENGTH]);
+	}
+
+	public HandShakeMessage(String peerId, byte extensionFlags, byte[] infoHash) {
 		this.handShakeHeader = Constants.HEADER_STRING.getBytes();
 		this.peerId = peerId.getBytes();
 		assert this.peerId.length == 4;
+		assert infoHash.length == Constants.INFO_HASH_LENGTH;
 		this.zeroBits = new byte[10];
+		this.zeroBits[0] = extensionFlags;
+		System.arraycopy(infoHash, 0, this.zeroBits, 1, Constants.INFO_HASH_LENGTH);
 	}
 
 	public HandShakeMessage(byte[] handShakeHeader, byte[] zeroBits, byte[] peerId) {
@@ -37,6 +50,10 @@ public class HandShakeMessage {
 		return this.zeroBits;
 	}
 
+	public byte[] getInfoHash() {
+		return Arrays.copyOfRange(this.zeroBits, 1, 1 + Constants.INFO_HASH_LENGTH);
+	}
+
 	public String getPeerId() {
 		return new String(this.peerId);
 	}
@@ -0,0 +1,97 @@
+package p2p;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock-free histogram of latencies in microseconds, laid out like HdrHistogram: each power of two is split into 32
+ * linear sub-buckets, so any recorded value is reported to within about 3% whatever its magnitude, in a fixed 9 KiB.
+ * Recording is a handful of atomic increments; reads may see a recording half applied, which is fine for metrics.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	// Values from 2^40 microseconds (about 12 days) up land in the last bucket
+	private static final int MAX_MAGNITUDE = 40;
+	private static final int BUCKET_COUNT = ( MAX_MAGNITUDE - SUB_BUCKET_BITS + 2 ) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong totalCount;
+	private final AtomicLong totalMicros;
+	private final AtomicLong maxMicros;
+
+	public LatencyHistogram() {
+		this.counts = new AtomicLongArray(BUCKET_COUNT);
+		this.totalCount = new AtomicLong();
+		this.totalMicros = new AtomicLong();
+		this.maxMicros = new AtomicLong();
+	}
+
+	public void recordNanos(long nanos) {
+		final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+		this.counts.incrementAndGet(bucketOf(micros));
+		this.totalCount.incrementAndGet();
+		this.totalMicros.addAndGet(micros);
+		this.maxMicros.accumulateAndGet(micros, Math::max);
+	}
+
+	public long getCount() {
+		return this.totalCount.get();
+	}
+
+	public double getMeanMicros() {
+		final long count = this.totalCount.get();
+		return count == 0 ? 0 : (double) this.totalMicros.get() / count;
+	}
+
+	public long getMaxMicros() {
+		return this.maxMicros.get();
+	}
+
+	/*
+	 * The highest value of the bucket holding the given percentile, 0 to 100, capped at the largest value seen.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		final long count = this.totalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int bucket = 0; bucket < this.counts.length(); bucket++) {
+			seen += this.counts.get(bucket);
+			if (seen >= rank) {
+				return Math.min(highestValueOf(bucket), this.maxMicros.get());
+			}
+		}
+		return this.maxMicros.get();
+	}
+
+	private static int bucketOf(long micros) {
+		if (micros < SUB_BUCKET_COUNT) {
+			return (int) micros;
+		}
+		final int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+		if (magnitude > MAX_MAGNITUDE) {
+			return BUCKET_COUNT - 1;
+		}
+		final int subBucket = (int) ( micros >>> magnitude - SUB_BUCKET_BITS ) & SUB_BUCKET_COUNT - 1;
+		return ( magnitude - SUB_BUCKET_BITS + 1 ) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	private static long highestValueOf(int bucket) {
+		if (bucket < SUB_BUCKET_COUNT) {
+			return bucket;
+		}
+		if (bucket == BUCKET_COUNT - 1) {
+			// Open-ended, so a percentile landing here reports the largest value seen
+			return Long.MAX_VALUE;
+		}
+		final int magnitude = bucket / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+		final long subBucket = bucket % SUB_BUCKET_COUNT;
+		return ( SUB_BUCKET_COUNT + subBucket + 1 << magnitude - SUB_BUCKET_BITS ) - 1;
+	}
+
+}
@@ -0,0 +1,250 @@
+package p2p;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * Piece hashes of the shared file, the counterpart of the info dictionary in a BitTorrent metainfo file. On disk it is
+ * plain text: a header line "<algorithm> <FileSize> <PieceSize>" followed by one hex digest per piece.
+ *
+ * A MANIFEST payload carries the same: a 1 byte algorithm length, the algorithm, the 8 byte file size, the 4 byte
+ * piece size and then the digests back to back.
+ */
+public class Manifest {
+
+	private final String algorithm;
+	private final long fileSize;
+	private final int pieceSize;
+	private final byte[][] pieceHashes;
+
+	public Manifest(String algorithm, long fileSize, int pieceSize, byte[][] pieceHashes) {
+		this.algorithm = algorithm;
+		this.fileSize = fileSize;
+		this.pieceSize = pieceSize;
+		this.pieceHashes = pieceHashes;
+	}
+
+	/*
+	 * Hashes every piece of the store, spreading the pieces over the given pool.
+	 */
+	public static Manifest generate(PieceStore pieceStore, String algorithm, int pieceSize,
+			ExecutorService executorService) throws IOException {
+		final ThreadLocal<MessageDigest> messageDigests = newMessageDigests(algorithm);
+		final List<Future<byte[]>> futures = new ArrayList<>(pieceStore.getNoOfPieces());
+		for (int pieceIndex = 0; pieceIndex < pieceStore.getNoOfPieces(); pieceIndex++) {
+			final int index = pieceIndex;
+			futures.add(executorService.submit(() -> hash(messageDigests.get(), pieceStore, index)));
+		}
+
+		final byte[][] pieceHashes = new byte[futures.size()][];
+		try {
+			for (int pieceIndex = 0; pieceIndex < pieceHashes.length; pieceIndex++) {
+				pieceHashes[pieceIndex] = futures.get(pieceIndex).get();
+			}
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while hashing pieces", e);
+		}
+		catch (final ExecutionException e) {
+			throw new IOException("Could not hash pieces", e.getCause());
+		}
+		return new Manifest(algorithm, pieceStore.getFileSize(), pieceSize, pieceHashes);
+	}
+
+	/*
+	 * Returns null if there is no manifest file yet. Throws if the file is empty, truncated or malformed, which a
+	 * crash while saving a fetched copy can leave behind.
+	 */
+	public static Manifest load(String manifestFileName) throws IOException {
+		final File manifestFile = new File(manifestFileName);
+		if (!manifestFile.exists()) {
+			return null;
+		}
+
+		try (final BufferedReader bufferedReader = new BufferedReader(new FileReader(manifestFile))) {
+			final String headerLine = bufferedReader.readLine();
+			if (headerLine == null) {
+				throw new IOException("Manifest " + manifestFileName + " is empty");
+			}
+			final String[] header = headerLine.trim().split("\\s+");
+			if (header.length != 3) {
+				throw new IOException("Manifest " + manifestFileName + " has the header \"" + headerLine + "\"");
+			}
+			final String algorithm = header[0];
+			final long fileSize = Long.parseLong(header[1]);
+			final int pieceSize = Integer.parseInt(header[2]);
+			if (fileSize <= 0 || pieceSize <= 0) {
+				throw new IOException("Manifest " + manifestFileName + " has the header \"" + headerLine + "\"");
+			}
+			final int noOfPieces = (int) ( ( fileSize + pieceSize - 1 ) / pieceSize );
+
+			final byte[][] pieceHashes = new byte[noOfPieces][];
+			for (int pieceIndex = 0; pieceIndex < noOfPieces; pieceIndex++) {
+				final String line = bufferedReader.readLine();
+				if (line == null) {
+					throw new IOException("Manifest " + manifestFileName + " is missing the hash of piece "
+							+ pieceIndex);
+				}
+				pieceHashes[pieceIndex] = HexFormat.of().parseHex(line.trim());
+			}
+			return new Manifest(algorithm, fileSize, pieceSize, pieceHashes);
+		}
+		catch (final IllegalArgumentException e) {
+			// Covers NumberFormatException as well as a digest that is not hex
+			throw new IOException("Manifest " + manifestFileName + " is malformed", e);
+		}
+	}
+
+	/*
+	 * Written to a temporary file first, so a peer reading the manifest never sees half of it.
+	 */
+	public void write(String manifestFileName) throws IOException {
+		final File manifestFile = new File(manifestFileName);
+		final File temporaryFile = new File(manifestFileName + ".tmp");
+		try (final BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(temporaryFile))) {
+			bufferedWriter.write(this.algorithm + " " + this.fileSize + " " + this.pieceSize);
+			bufferedWriter.newLine();
+			for (final byte[] pieceHash : this.pieceHashes) {
+				bufferedWriter.write(HexFormat.of().formatHex(pieceHash));
+				bufferedWriter.newLine();
+			}
+		}
+		Files.move(temporaryFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public byte[] toPayload() {
+		final byte[] algorithm = this.algorithm.getBytes(StandardCharsets.US_ASCII);
+		final ByteBuffer payload = ByteBuffer.allocate(payloadLength(this.algorithm, this.pieceHashes.length));
+		payload.put((byte) algorithm.length).put(algorithm).putLong(this.fileSize).putInt(this.pieceSize);
+		for (final byte[] pieceHash : this.pieceHashes) {
+			payload.put(pieceHash);
+		}
+		return payload.array();
+	}
+
+	/*
+	 * Parses a MANIFEST payload, which must describe the share it was received for.
+	 */
+	public static Manifest fromPayload(byte[] payload, String algorithm, long fileSize, int pieceSize)
+			throws ProtocolException {
+		final int noOfPieces = (int) ( ( fileSize + pieceSize - 1 ) / pieceSize );
+		if (payload.length != payloadLength(algorithm, noOfPieces)) {
+			throw new ProtocolException("Manifest of " + payload.length + " bytes for " + noOfPieces + " pieces");
+		}
+		final ByteBuffer byteBuffer = ByteBuffer.wrap(payload);
+		final byte[] receivedAlgorithm = new byte[Byte.toUnsignedInt(byteBuffer.get())];
+		if (receivedAlgorithm.length > byteBuffer.remaining()) {
+			throw new ProtocolException("Truncated manifest");
+		}
+		byteBuffer.get(receivedAlgorithm);
+		final Manifest manifest = new Manifest(new String(receivedAlgorithm, StandardCharsets.US_ASCII),
+				byteBuffer.getLong(), byteBuffer.getInt(), new byte[noOfPieces][]);
+		if (!manifest.algorithm.equalsIgnoreCase(algorithm) || manifest.fileSize != fileSize
+				|| manifest.pieceSize != pieceSize) {
+			throw new ProtocolException("Manifest describes " + manifest.algorithm + " " + manifest.fileSize + " "
+					+ manifest.pieceSize + " instead of " + algorithm + " " + fileSize + " " + pieceSize);
+		}
+		final int digestLength = digestLength(algorithm);
+		for (int pieceIndex = 0; pieceIndex < noOfPieces; pieceIndex++) {
+			manifest.pieceHashes[pieceIndex] = new byte[digestLength];
+			byteBuffer.get(manifest.pieceHashes[pieceIndex]);
+		}
+		return manifest;
+	}
+
+	/*
+	 * Hash of the MANIFEST payload under the manifest's own algorithm. Configured in Common.cfg, it pins the content
+	 * of a share: a manifest from a neighbor is only taken if it has this digest.
+	 */
+	public byte[] digest() {
+		try {
+			return MessageDigest.getInstance(this.algorithm).digest(this.toPayload());
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unsupported PieceHashAlgorithm " + this.algorithm, e);
+		}
+	}
+
+	/*
+	 * Size of the MANIFEST payload for a share, which the frame limit must allow for.
+	 */
+	public static int payloadLength(String algorithm, int noOfPieces) {
+		return 1 + algorithm.length() + 8 + 4 + noOfPieces * digestLength(algorithm);
+	}
+
+	/*
+	 * Also checks that every digest has the algorithm's length, so a manifest written for another algorithm is not
+	 * taken for one whose pieces all fail.
+	 */
+	public boolean matches(String algorithm, long fileSize, int pieceSize) {
+		if (!this.algorithm.equalsIgnoreCase(algorithm) || this.fileSize != fileSize || this.pieceSize != pieceSize) {
+			return false;
+		}
+		final int digestLength = digestLength(algorithm);
+		for (final byte[] pieceHash : this.pieceHashes) {
+			if (pieceHash.length != digestLength) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean verify(MessageDigest messageDigest, PieceStore pieceStore, int pieceIndex) throws IOException {
+		return Arrays.equals(hash(messageDigest, pieceStore, pieceIndex), this.pieceHashes[pieceIndex]);
+	}
+
+	static ThreadLocal<MessageDigest> newMessageDigests(String algorithm) {
+		try {
+			// Fail fast on a misspelt algorithm rather than on the first piece
+			MessageDigest.getInstance(algorithm);
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unsupported PieceHashAlgorithm " + algorithm, e);
+		}
+		return ThreadLocal.withInitial(() -> {
+			try {
+				return MessageDigest.getInstance(algorithm);
+			}
+			catch (final NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	private static int digestLength(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm).getDigestLength();
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unsupported PieceHashAlgorithm " + algorithm, e);
+		}
+	}
+
+	private static byte[] hash(MessageDigest messageDigest, PieceStore pieceStore, int pieceIndex)
+			throws IOException {
+		messageDigest.reset();
+		messageDigest.update(pieceStore.getPiece(pieceIndex));
+		return messageDigest.digest();
+	}
+
+}
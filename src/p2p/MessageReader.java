@@ -0,0 +1,163 @@
+package p2p;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+ * Reads length-prefixed messages from a blocking channel. Each read fills a pooled staging buffer with as much as the
+ * channel has, and frames are parsed from it in place until it runs dry, so a burst of small messages costs one read
+ * rather than two per frame. The returned MessageView is reused, so in steady state reading a message allocates
+ * nothing. A frame longer than maxFrameSize is refused before anything is allocated for it.
+ */
+public class MessageReader {
+
+	private static final int INITIAL_STAGING_BUFFER_SIZE = 64 * 1024;
+
+	private final ReadableByteChannel channel;
+	private final BufferPool bufferPool;
+	private final MessageView messageView;
+	private final int maxFrameSize;
+	// Read mode: the bytes between position and limit have been received but not parsed yet
+	private PooledBuffer pooledStagingBuffer;
+	private ByteBuffer stagingBuffer;
+
+	public MessageReader(ReadableByteChannel channel, BufferPool bufferPool) {
+		this(channel, bufferPool, Integer.MAX_VALUE);
+	}
+
+	public MessageReader(ReadableByteChannel channel, BufferPool bufferPool, int maxFrameSize) {
+		this.channel = channel;
+		this.bufferPool = bufferPool;
+		this.maxFrameSize = maxFrameSize;
+		this.messageView = new MessageView();
+		this.pooledStagingBuffer = bufferPool.acquire(INITIAL_STAGING_BUFFER_SIZE);
+		this.stagingBuffer = this.pooledStagingBuffer.getByteBuffer();
+		this.stagingBuffer.flip();
+	}
+
+	public HandShakeMessage readHandShakeMessage() throws IOException {
+		this.fill(32);
+		final byte[] receivedHandShakeHeader = new byte[18];
+		final byte[] receivedZeroBits = new byte[10];
+		final byte[] receivedPeerId = new byte[4];
+		this.stagingBuffer.get(receivedHandShakeHeader);
+		this.stagingBuffer.get(receivedZeroBits);
+		this.stagingBuffer.get(receivedPeerId);
+
+		return new HandShakeMessage(receivedHandShakeHeader, receivedZeroBits, receivedPeerId);
+	}
+
+	/*
+	 * The view points into the staging buffer, so the caller must release() it before reading the next message.
+	 */
+	public MessageView readMessage() throws IOException {
+		this.fill(4);
+		final int messageLength = this.stagingBuffer.getInt(this.stagingBuffer.position());
+		checkFrameLength(messageLength, this.maxFrameSize);
+		this.fill(4 + messageLength);
+
+		final int messageOffset = this.stagingBuffer.position() + 4;
+		checkMessageType(this.stagingBuffer.get(messageOffset));
+		this.stagingBuffer.position(messageOffset + messageLength);
+		return this.messageView.wrap(this.stagingBuffer, messageOffset, messageLength, null);
+	}
+
+	/*
+	 * Returns the staging buffer to the pool. The reader must not be used afterwards.
+	 */
+	public void close() {
+		if (this.pooledStagingBuffer != null) {
+			this.pooledStagingBuffer.release();
+			this.pooledStagingBuffer = null;
+			this.stagingBuffer = null;
+		}
+	}
+
+	/*
+	 * Framing checks shared with NioConnection. After a bad length or type the stream cannot be resynchronized, so
+	 * the connection is dropped rather than the frame skipped.
+	 */
+	static void checkFrameLength(int messageLength, int maxFrameSize) throws ProtocolException {
+		if (messageLength <= 0 || messageLength > maxFrameSize) {
+			throw new ProtocolException("Frame length " + messageLength + " outside 1 to " + maxFrameSize);
+		}
+	}
+
+	static void checkMessageType(byte messageType) throws ProtocolException {
+		if (!Constants.ActualMessageType.isKnown(messageType)) {
+			throw new ProtocolException("Unknown message type " + messageType);
+		}
+	}
+
+	/*
+	 * Field checks for HAVE, REQUEST, PIECE and CANCEL, shared by both transports. Every field comes straight from the
+	 * neighbor, so each is checked against the share before it indexes anything.
+	 */
+	static void checkPayloadLength(MessageView message, int payloadLength) throws ProtocolException {
+		if (message.getPayloadLength() != payloadLength) {
+			throw new ProtocolException(message.getMessageType() + " payload of " + message.getPayloadLength()
+					+ " bytes instead of " + payloadLength);
+		}
+	}
+
+	static int checkPieceIndex(int pieceIndex, int noOfPieces) throws ProtocolException {
+		if (pieceIndex < 0 || pieceIndex >= noOfPieces) {
+			throw new ProtocolException("Piece index " + pieceIndex + " outside 0 to " + ( noOfPieces - 1 ));
+		}
+		return pieceIndex;
+	}
+
+	/*
+	 * A REQUEST may ask for any range of up to one block within the piece.
+	 */
+	static void checkRequestedRange(int offsetInPiece, int length, int pieceLength) throws ProtocolException {
+		if (offsetInPiece < 0 || length <= 0 || length > Constants.BLOCK_SIZE || offsetInPiece > pieceLength - length) {
+			throw new ProtocolException("Request for " + length + " bytes at " + offsetInPiece + " outside a piece of "
+					+ pieceLength + " bytes");
+		}
+	}
+
+	/*
+	 * PIECE data must be exactly the unit at offsetInPiece: a whole piece when unitSize is the piece length, otherwise
+	 * a block, the last one of a piece being shorter.
+	 */
+	static void checkPieceData(int offsetInPiece, int length, int pieceLength, int unitSize)
+			throws ProtocolException {
+		if (offsetInPiece < 0 || offsetInPiece >= pieceLength || offsetInPiece % unitSize != 0
+				|| length != Math.min(unitSize, pieceLength - offsetInPiece)) {
+			throw new ProtocolException("Piece data of " + length + " bytes at " + offsetInPiece
+					+ " does not match a piece of " + pieceLength + " bytes");
+		}
+	}
+
+	/*
+	 * Reads until at least length unparsed bytes are staged, taking whatever else has already arrived along with
+	 * them. The staging buffer grows to fit a frame larger than itself.
+	 */
+	private void fill(int length) throws IOException {
+		if (this.stagingBuffer.remaining() >= length) {
+			return;
+		}
+		if (this.stagingBuffer.capacity() < length) {
+			final PooledBuffer largerPooledStagingBuffer = this.bufferPool.acquire(length);
+			largerPooledStagingBuffer.getByteBuffer().put(this.stagingBuffer);
+			this.pooledStagingBuffer.release();
+			this.pooledStagingBuffer = largerPooledStagingBuffer;
+			this.stagingBuffer = largerPooledStagingBuffer.getByteBuffer();
+		}
+		else {
+			this.stagingBuffer.compact();
+		}
+		while (this.stagingBuffer.position() < length) {
+			if (this.channel.read(this.stagingBuffer) < 0) {
+				this.stagingBuffer.flip();
+				throw new EOFException("Connection closed by peer");
+			}
+		}
+		this.stagingBuffer.flip();
+	}
+
+}
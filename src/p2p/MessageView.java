@@ -0,0 +1,80 @@
+package p2p;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Flyweight over a received message that still sits in its receive buffer. One instance is reused per connection,
+ * so a view is only valid until the next message is read from the same connection; handlers that need data later
+ * must copy it out (or retain the PooledBuffer).
+ */
+public class MessageView {
+
+	private ByteBuffer buffer;
+	private int messageOffset;
+	private int messageLength;
+	private PooledBuffer pooledBuffer;
+
+	/*
+	 * messageOffset is the absolute index of the type byte; messageLength is the length prefix (type plus payload).
+	 * If pooledBuffer is not null the view owns one reference to it, dropped by release().
+	 */
+	public MessageView wrap(ByteBuffer buffer, int messageOffset, int messageLength, PooledBuffer pooledBuffer) {
+		this.buffer = buffer;
+		this.messageOffset = messageOffset;
+		this.messageLength = messageLength;
+		this.pooledBuffer = pooledBuffer;
+		return this;
+	}
+
+	public void release() {
+		if (this.pooledBuffer != null) {
+			this.pooledBuffer.release();
+			this.pooledBuffer = null;
+		}
+		this.buffer = null;
+	}
+
+	public int getMessageLength() {
+		return this.messageLength;
+	}
+
+	public Constants.ActualMessageType getMessageType() {
+		return Constants.ActualMessageType.fromOrdinal(this.buffer.get(this.messageOffset));
+	}
+
+	public boolean hasPayload() {
+		return this.messageLength > 1;
+	}
+
+	public int getPayloadLength() {
+		return this.messageLength - 1;
+	}
+
+	public int getPayloadInt(int index) {
+		return this.buffer.getInt(this.getPayloadOffset() + index);
+	}
+
+	public byte[] getPayloadBytes() {
+		final byte[] payload = new byte[this.getPayloadLength()];
+		this.buffer.get(this.getPayloadOffset(), payload);
+		return payload;
+	}
+
+	/*
+	 * The buffer holding the message and the absolute index of the first payload byte in it, for handlers that
+	 * copy the payload straight to its destination.
+	 */
+	public ByteBuffer getBuffer() {
+		return this.buffer;
+	}
+
+	public int getPayloadOffset() {
+		return this.messageOffset + 1;
+	}
+
+	@Override
+	public String toString() {
+		return "MessageView [messageLength=" + this.messageLength + ", messageType=" + this.getMessageType() + "]";
+	}
+
+}
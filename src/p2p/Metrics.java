@@ -0,0 +1,212 @@
+package p2p;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Process-wide counters plus the registry of per-connection PeerMetrics, published through the platform MBean
+ * server so jconsole or any JMX client can watch a running swarm, and as the plain text dump() returns.
+ */
+public class Metrics implements MetricsMBean {
+
+	private static final Metrics DEFAULT = new Metrics(BufferPool.getDefault());
+	private static final long PIECE_RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+	// How often the process scheduler calls sample()
+	static final int SAMPLE_INTERVAL_SECONDS = 1;
+
+	private final BufferPool bufferPool;
+	private final LongAdder bytesUploaded;
+	private final LongAdder bytesDownloaded;
+	private final LongAdder piecesCompleted;
+	private final ThroughputMeter pieceMeter;
+	private final LatencyHistogram requestLatency;
+	private final Map<ObjectName, PeerMetrics> connections;
+	private final MBeanServer mBeanServer;
+
+	public Metrics(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+		this.bytesUploaded = new LongAdder();
+		this.bytesDownloaded = new LongAdder();
+		this.piecesCompleted = new LongAdder();
+		this.pieceMeter = new ThroughputMeter();
+		this.requestLatency = new LatencyHistogram();
+		this.connections = new ConcurrentHashMap<>();
+		this.mBeanServer = ManagementFactory.getPlatformMBeanServer();
+	}
+
+	public static Metrics getDefault() {
+		return DEFAULT;
+	}
+
+	public void registerProcess(String peerId) {
+		try {
+			this.register(new ObjectName("p2p:type=PeerProcess,peer=" + ObjectName.quote(peerId)), this);
+		}
+		catch (final JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/*
+	 * Publishes a connection once its handshake has named the peer and the share.
+	 */
+	public void registerConnection(PeerMetrics peerMetrics, String fileName) {
+		peerMetrics.setFileName(fileName);
+		try {
+			final ObjectName objectName = new ObjectName("p2p:type=Connection,share=" + ObjectName.quote(fileName)
+					+ ",peer=" + ObjectName.quote(peerMetrics.getPeerId()));
+			peerMetrics.setObjectName(objectName);
+			this.connections.put(objectName, peerMetrics);
+			this.register(objectName, peerMetrics);
+		}
+		catch (final JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void unregisterConnection(PeerMetrics peerMetrics) {
+		final ObjectName objectName = peerMetrics.getObjectName();
+		// A reconnect may already have taken the name over
+		if (objectName == null || !this.connections.remove(objectName, peerMetrics)) {
+			return;
+		}
+		try {
+			this.mBeanServer.unregisterMBean(objectName);
+		}
+		catch (final JMException e) {
+			// Already gone
+		}
+	}
+
+	private void register(ObjectName objectName, Object mBean) throws JMException {
+		try {
+			this.mBeanServer.registerMBean(mBean, objectName);
+		}
+		catch (final InstanceAlreadyExistsException e) {
+			this.mBeanServer.unregisterMBean(objectName);
+			this.mBeanServer.registerMBean(mBean, objectName);
+		}
+	}
+
+	public void addBytesUploaded(long bytes) {
+		this.bytesUploaded.add(bytes);
+	}
+
+	public void addBytesDownloaded(long bytes) {
+		this.bytesDownloaded.add(bytes);
+	}
+
+	public void onPieceCompleted() {
+		this.piecesCompleted.increment();
+		this.pieceMeter.add(1);
+	}
+
+	/*
+	 * Folds the pieces completed since the last call into the rate. Readers only see the stored rate, so watching it
+	 * over JMX or dumping it does not change it.
+	 */
+	public void sample() {
+		this.pieceMeter.sample(PIECE_RATE_WINDOW_NANOS);
+	}
+
+	public LatencyHistogram getRequestLatency() {
+		return this.requestLatency;
+	}
+
+	@Override
+	public long getBytesUploaded() {
+		return this.bytesUploaded.sum();
+	}
+
+	@Override
+	public long getBytesDownloaded() {
+		return this.bytesDownloaded.sum();
+	}
+
+	@Override
+	public long getPiecesCompleted() {
+		return this.piecesCompleted.sum();
+	}
+
+	@Override
+	public double getPiecesPerSecond() {
+		return this.pieceMeter.getRate();
+	}
+
+	@Override
+	public int getConnections() {
+		return this.connections.size();
+	}
+
+	@Override
+	public long getRequestLatencyCount() {
+		return this.requestLatency.getCount();
+	}
+
+	@Override
+	public double getRequestLatencyMeanMicros() {
+		return this.requestLatency.getMeanMicros();
+	}
+
+	@Override
+	public long getRequestLatency50thPercentileMicros() {
+		return this.requestLatency.getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getRequestLatency99thPercentileMicros() {
+		return this.requestLatency.getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getRequestLatencyMaxMicros() {
+		return this.requestLatency.getMaxMicros();
+	}
+
+	@Override
+	public long getBufferPoolAllocatedBytes() {
+		return this.bufferPool.getAllocatedBytes();
+	}
+
+	@Override
+	public long getBufferPoolBuffersInUse() {
+		return this.bufferPool.getBuffersInUse();
+	}
+
+	@Override
+	public String dump() {
+		final StringBuilder stringBuilder = new StringBuilder();
+		stringBuilder.append(String.format("bytes up %d down %d, pieces %d (%.2f/s), connections %d%n",
+				this.getBytesUploaded(), this.getBytesDownloaded(), this.getPiecesCompleted(),
+				this.getPiecesPerSecond(), this.getConnections()));
+		stringBuilder.append(String.format("request latency us: count %d mean %.0f p50 %d p99 %d max %d%n",
+				this.getRequestLatencyCount(), this.getRequestLatencyMeanMicros(),
+				this.getRequestLatency50thPercentileMicros(), this.getRequestLatency99thPercentileMicros(),
+				this.getRequestLatencyMaxMicros()));
+		stringBuilder.append(String.format("buffer pool: %d bytes allocated, %d buffers in use%n",
+				this.getBufferPoolAllocatedBytes(), this.getBufferPoolBuffersInUse()));
+		for (final PeerMetrics peerMetrics : this.connections.values()) {
+			stringBuilder.append(String.format(
+					"%s peer %s: bytes up %d down %d, pieces up %d down %d, rate %.0f B/s, outstanding %d, "
+							+ "queued %d, %s, choke/unchoke sent %d/%d received %d/%d, latency us p50 %d p99 %d%n",
+					peerMetrics.getFileName(), peerMetrics.getPeerId(), peerMetrics.getBytesUploaded(),
+					peerMetrics.getBytesDownloaded(), peerMetrics.getPiecesUploaded(),
+					peerMetrics.getPiecesDownloaded(), peerMetrics.getDownloadRate(),
+					peerMetrics.getOutstandingRequests(), peerMetrics.getQueuedMessages(),
+					peerMetrics.isChoked() ? "choked" : "unchoked", peerMetrics.getChokesSent(),
+					peerMetrics.getUnchokesSent(), peerMetrics.getChokesReceived(),
+					peerMetrics.getUnchokesReceived(), peerMetrics.getRequestLatency50thPercentileMicros(),
+					peerMetrics.getRequestLatency99thPercentileMicros()));
+		}
+		return stringBuilder.toString();
+	}
+
+}
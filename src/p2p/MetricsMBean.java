@@ -0,0 +1,37 @@
+package p2p;
+
+/*
+ * JMX view of the whole peer process, registered as p2p:type=PeerProcess,peer=<peer ID>.
+ */
+public interface MetricsMBean {
+
+	long getBytesUploaded();
+
+	long getBytesDownloaded();
+
+	long getPiecesCompleted();
+
+	double getPiecesPerSecond();
+
+	int getConnections();
+
+	long getRequestLatencyCount();
+
+	double getRequestLatencyMeanMicros();
+
+	long getRequestLatency50thPercentileMicros();
+
+	long getRequestLatency99thPercentileMicros();
+
+	long getRequestLatencyMaxMicros();
+
+	long getBufferPoolAllocatedBytes();
+
+	long getBufferPoolBuffersInUse();
+
+	/*
+	 * Everything above and every connection's counters as plain text.
+	 */
+	String dump();
+
+}
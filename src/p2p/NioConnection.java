@@ -0,0 +1,439 @@
+package p2p;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+public class NioConnection {
+
+	private static final int HANDSHAKE_LENGTH = 32;
+	private static final int INITIAL_READ_BUFFER_SIZE = 64 * 1024;
+	// Control messages handed to one gathering write
+	private static final int MAX_GATHERED_WRITES = 64;
+
+	private final SocketChannel socketChannel;
+	private final NioEventLoop eventLoop;
+	private final boolean isClient;
+	// Control messages overtake piece data that has not started, so a slow or throttled upload never delays them
+	private final Queue<ByteBuffer> controlQueue;
+	private final Queue<Object[]> pieceQueue;
+	// Set while a flush is queued on the event loop; sends in the meantime ride along with it
+	private final AtomicBoolean flushRequested;
+	// Only touched on the event loop thread
+	private final ByteBuffer[] gatheredWrites;
+
+	private final MessageView messageView;
+
+	private PooledBuffer pooledReadBuffer;
+	private ByteBuffer readBuffer;
+	private SelectionKey selectionKey;
+	private PeerManager peerManager;
+	private boolean handShakeReceived;
+	private boolean decoding;
+	// Set while a buffered PIECE frame waits for room in the DiskWriter queue; reading stops until then
+	private boolean awaitingDiskWriter;
+	// The { header, FileRegion } being written; it is finished before anything else goes out
+	private Object[] currentPiece;
+	private boolean flushScheduled;
+
+	public NioConnection(SocketChannel socketChannel, NioEventLoop eventLoop, boolean isClient) {
+		this.socketChannel = socketChannel;
+		this.eventLoop = eventLoop;
+		this.isClient = isClient;
+		this.controlQueue = new ConcurrentLinkedQueue<>();
+		this.pieceQueue = new ConcurrentLinkedQueue<>();
+		this.flushRequested = new AtomicBoolean(false);
+		this.gatheredWrites = new ByteBuffer[MAX_GATHERED_WRITES];
+		this.messageView = new MessageView();
+		this.pooledReadBuffer = BufferPool.getDefault().acquire(INITIAL_READ_BUFFER_SIZE);
+		this.readBuffer = this.pooledReadBuffer.getByteBuffer();
+		this.handShakeReceived = false;
+	}
+
+	/*
+	 * Must run on the event loop thread. An outgoing channel may still be connecting, in which case the handshake
+	 * waits for onConnectable.
+	 */
+	public void register() {
+		try {
+			if (this.socketChannel.isConnectionPending()) {
+				this.selectionKey = this.socketChannel.register(this.eventLoop.getSelector(), SelectionKey.OP_CONNECT,
+						this);
+				this.closeOnTimeout(PeerProcess.getConnectTimeout(), () -> !this.socketChannel.isConnected());
+				return;
+			}
+			this.selectionKey = this.socketChannel.register(this.eventLoop.getSelector(), SelectionKey.OP_READ, this);
+			this.onConnected();
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+			this.close();
+		}
+	}
+
+	public void onConnectable() throws IOException {
+		if (this.socketChannel.finishConnect()) {
+			this.selectionKey.interestOps(SelectionKey.OP_READ);
+			this.onConnected();
+		}
+	}
+
+	private void onConnected() throws IOException {
+		if (this.isClient) {
+			this.peerManager.sendHandShakeMessage();
+		}
+		this.closeOnTimeout(PeerProcess.getHandShakeTimeout(), () -> !this.handShakeReceived);
+	}
+
+	/*
+	 * Closes the connection if the setup phase it is in has not finished after timeoutSeconds.
+	 */
+	private void closeOnTimeout(int timeoutSeconds, BooleanSupplier phasePending) {
+		this.eventLoop.schedule(() -> {
+			if (this.socketChannel.isOpen() && phasePending.getAsBoolean()) {
+				this.close();
+			}
+		}, TimeUnit.SECONDS.toNanos(timeoutSeconds));
+	}
+
+	public void onReadable() throws IOException {
+		final TokenBucket downloadBucket = this.peerManager.getConnectedPeer().getDownloadBucket();
+		final long delayNanos = downloadBucket.nanosUntilAvailable();
+		if (delayNanos > 0) {
+			// Leaving the bytes in the socket lets TCP flow control slow the sender down
+			this.selectionKey.interestOps(this.selectionKey.interestOps() & ~SelectionKey.OP_READ);
+			this.eventLoop.schedule(this::resumeReading, delayNanos);
+			return;
+		}
+		final int bytesRead = this.socketChannel.read(this.readBuffer);
+		if (bytesRead < 0) {
+			this.close();
+			return;
+		}
+		downloadBucket.consume(bytesRead);
+		this.peerManager.getConnectedPeer().getMetrics().addBytesDownloaded(bytesRead);
+
+		this.readBuffer.flip();
+		this.decodeBuffered();
+	}
+
+	/*
+	 * Dispatches the complete frames in the read buffer, which must be flipped for reading, and compacts it again.
+	 */
+	private void decodeBuffered() throws IOException {
+		this.decoding = true;
+		try {
+			while (this.decode()) {
+				// Keep dispatching while complete frames are buffered
+			}
+		}
+		finally {
+			this.decoding = false;
+		}
+		if (this.pooledReadBuffer == null) {
+			return;
+		}
+		if (!this.socketChannel.isOpen()) {
+			// A handler closed the connection mid-read; the buffer could not be returned until now
+			this.releaseReadBuffer();
+			return;
+		}
+		this.readBuffer.compact();
+	}
+
+	private void resumeReading() {
+		if (this.selectionKey.isValid() && !this.awaitingDiskWriter) {
+			this.selectionKey.interestOps(this.selectionKey.interestOps() | SelectionKey.OP_READ);
+		}
+	}
+
+	private boolean decode() throws IOException {
+		if (this.peerManager.isTerminated()) {
+			this.readBuffer.position(this.readBuffer.limit());
+			return false;
+		}
+
+		if (!this.handShakeReceived) {
+			if (this.readBuffer.remaining() < HANDSHAKE_LENGTH) {
+				return false;
+			}
+			final byte[] receivedHandShakeHeader = new byte[18];
+			final byte[] receivedZeroBits = new byte[10];
+			final byte[] receivedPeerId = new byte[4];
+			this.readBuffer.get(receivedHandShakeHeader);
+			this.readBuffer.get(receivedZeroBits);
+			this.readBuffer.get(receivedPeerId);
+			this.handShakeReceived = true;
+
+			this.peerManager.onHandShake(new HandShakeMessage(receivedHandShakeHeader, receivedZeroBits,
+					receivedPeerId), this.isClient);
+			this.peerManager.sendBitField();
+			// Only now may other connections broadcast to this peer, so nothing overtakes the BitField.
+			this.peerManager.addToShare();
+			this.closeOnTimeout(PeerProcess.getBitFieldTimeout(), () -> !this.peerManager.isEstablished());
+			return true;
+		}
+
+		if (this.readBuffer.remaining() < 4) {
+			return false;
+		}
+		final int messageLength = this.readBuffer.getInt(this.readBuffer.position());
+		// Checked before the read buffer grows to fit the frame, and the type as soon as it arrives
+		MessageReader.checkFrameLength(messageLength, PeerProcess.getMaxFrameSize());
+		if (this.readBuffer.remaining() > 4) {
+			MessageReader.checkMessageType(this.readBuffer.get(this.readBuffer.position() + 4));
+		}
+		if (this.readBuffer.remaining() < 4 + messageLength) {
+			this.ensureReadCapacity(4 + messageLength);
+			return false;
+		}
+
+		// Handlers read the frame in place; it is skipped only once they return
+		final int messageOffset = this.readBuffer.position() + 4;
+		if (this.readBuffer.get(messageOffset) == Constants.ActualMessageType.PIECE.ordinal()
+				&& !this.peerManager.reserveDiskSlot(this::onDiskSlotFreed)) {
+			// Waiting for the disk would stall every connection on the loop, so only this one stops reading
+			this.awaitingDiskWriter = true;
+			this.selectionKey.interestOps(this.selectionKey.interestOps() & ~SelectionKey.OP_READ);
+			return false;
+		}
+		try {
+			this.peerManager.handleMessage(this.messageView.wrap(this.readBuffer, messageOffset, messageLength, null));
+		}
+		finally {
+			this.messageView.release();
+			this.peerManager.releaseDiskSlot();
+		}
+		this.readBuffer.position(messageOffset + messageLength);
+		return true;
+	}
+
+	/*
+	 * Runs on the DiskWriter thread.
+	 */
+	private void onDiskSlotFreed() {
+		this.eventLoop.execute(() -> {
+			if (!this.awaitingDiskWriter || this.pooledReadBuffer == null || !this.socketChannel.isOpen()) {
+				return;
+			}
+			this.awaitingDiskWriter = false;
+			try {
+				this.readBuffer.flip();
+				this.decodeBuffered();
+			}
+			catch (final IOException e) {
+				e.printStackTrace();
+				this.close();
+				return;
+			}
+			this.resumeReading();
+		});
+	}
+
+	private void ensureReadCapacity(int frameLength) {
+		if (this.readBuffer.capacity() < frameLength) {
+			final PooledBuffer largerPooledReadBuffer = BufferPool.getDefault().acquire(frameLength);
+			final ByteBuffer largerReadBuffer = largerPooledReadBuffer.getByteBuffer();
+			largerReadBuffer.put(this.readBuffer);
+			largerReadBuffer.flip();
+			this.pooledReadBuffer.release();
+			this.pooledReadBuffer = largerPooledReadBuffer;
+			this.readBuffer = largerReadBuffer;
+		}
+	}
+
+	public void send(ByteBuffer byteBuffer) {
+		this.controlQueue.add(byteBuffer);
+		this.requestFlush();
+	}
+
+	public void send(ByteBuffer header, FileRegion fileRegion) {
+		// Both parts are queued as one element so no other message can be written between them
+		this.pieceQueue.add(new Object[] { header, fileRegion });
+		this.requestFlush();
+	}
+
+	/*
+	 * Deferred even on the event loop, so every message queued while a read is being decoded, or by a burst of HAVEs
+	 * from another thread, leaves in one write.
+	 */
+	private void requestFlush() {
+		if (this.flushRequested.compareAndSet(false, true)) {
+			this.eventLoop.execute(() -> {
+				this.flushRequested.set(false);
+				this.flush();
+			});
+		}
+	}
+
+	public void cancelPiece(int pieceIndex, int offsetInPiece) {
+		this.eventLoop.execute(() -> {
+			// The piece being written is not in the queue any more
+			final Iterator<Object[]> iterator = this.pieceQueue.iterator();
+			while (iterator.hasNext()) {
+				final FileRegion fileRegion = (FileRegion) iterator.next()[1];
+				if (fileRegion.getPieceIndex() == pieceIndex && fileRegion.getOffsetInPiece() == offsetInPiece) {
+					iterator.remove();
+				}
+			}
+		});
+	}
+
+	/*
+	 * Approximate, as the queues are read without stopping writers.
+	 */
+	public int getQueuedMessages() {
+		return this.controlQueue.size() + this.pieceQueue.size() + ( this.currentPiece == null ? 0 : 1 );
+	}
+
+	public void onWritable() {
+		this.flush();
+	}
+
+	private void flush() {
+		if (this.selectionKey == null || !this.selectionKey.isValid()) {
+			return;
+		}
+		try {
+			while (true) {
+				if (this.currentPiece == null) {
+					if (!this.writeControlMessages()) {
+						this.selectionKey.interestOps(this.selectionKey.interestOps() | SelectionKey.OP_WRITE);
+						return;
+					}
+					if (this.pieceQueue.isEmpty()) {
+						break;
+					}
+					final TokenBucket uploadBucket = this.peerManager.getConnectedPeer().getUploadBucket();
+					final long delayNanos = uploadBucket.nanosUntilAvailable();
+					if (delayNanos > 0) {
+						this.scheduleFlush(delayNanos);
+						break;
+					}
+					this.currentPiece = this.pieceQueue.poll();
+					uploadBucket.consume(( (FileRegion) this.currentPiece[1] ).getLength());
+				}
+				if (!this.write(this.currentPiece)) {
+					this.selectionKey.interestOps(this.selectionKey.interestOps() | SelectionKey.OP_WRITE);
+					return;
+				}
+				this.currentPiece = null;
+			}
+			this.selectionKey.interestOps(this.selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+		catch (final IOException e) {
+			this.close();
+		}
+	}
+
+	private void scheduleFlush(long delayNanos) {
+		if (!this.flushScheduled) {
+			this.flushScheduled = true;
+			this.eventLoop.schedule(() -> {
+				this.flushScheduled = false;
+				this.flush();
+			}, delayNanos);
+		}
+	}
+
+	/*
+	 * Writes queued control messages with gathering writes. Returns false if the socket filled up first.
+	 */
+	private boolean writeControlMessages() throws IOException {
+		while (!this.controlQueue.isEmpty()) {
+			int count = 0;
+			for (final ByteBuffer control : this.controlQueue) {
+				this.gatheredWrites[count++] = control;
+				if (count == MAX_GATHERED_WRITES) {
+					break;
+				}
+			}
+			this.socketChannel.write(this.gatheredWrites, 0, count);
+			Arrays.fill(this.gatheredWrites, 0, count, null);
+			int written = 0;
+			ByteBuffer control;
+			while (written < count && ( control = this.controlQueue.peek() ) != null && !control.hasRemaining()) {
+				this.controlQueue.poll();
+				written++;
+			}
+			if (written < count) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Returns true once the queued element has been written completely.
+	 */
+	private boolean write(Object outbound) throws IOException {
+		if (outbound instanceof ByteBuffer) {
+			final ByteBuffer byteBuffer = (ByteBuffer) outbound;
+			this.socketChannel.write(byteBuffer);
+			return !byteBuffer.hasRemaining();
+		}
+		if (outbound instanceof FileRegion) {
+			final FileRegion fileRegion = (FileRegion) outbound;
+			while (fileRegion.hasRemaining()) {
+				if (fileRegion.transferTo(this.socketChannel) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+		for (final Object part : (Object[]) outbound) {
+			if (!this.write(part)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void close() {
+		if (this.peerManager != null) {
+			this.peerManager.setTerminated(true);
+			this.peerManager.onConnectionClosed();
+		}
+		if (this.selectionKey != null) {
+			this.selectionKey.cancel();
+		}
+		try {
+			this.socketChannel.close();
+		}
+		catch (final IOException e) {
+			// Already closed
+		}
+		if (!this.decoding) {
+			this.releaseReadBuffer();
+		}
+	}
+
+	private void releaseReadBuffer() {
+		if (this.pooledReadBuffer != null) {
+			this.pooledReadBuffer.release();
+			this.pooledReadBuffer = null;
+			this.readBuffer = null;
+		}
+	}
+
+	public SocketChannel getSocketChannel() {
+		return this.socketChannel;
+	}
+
+	public PeerManager getPeerManager() {
+		return this.peerManager;
+	}
+
+	public void setPeerManager(PeerManager peerManager) {
+		this.peerManager = peerManager;
+	}
+
+}
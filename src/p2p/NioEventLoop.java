@@ -0,0 +1,159 @@
+package p2p;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class NioEventLoop extends Thread {
+
+	private static final Logger LOGGER = CustomLogFormatter.getLogger();
+
+	private final Selector selector;
+	private final Queue<Runnable> tasks;
+	// Only touched on the event loop thread
+	private final PriorityQueue<ScheduledTask> scheduledTasks;
+	private volatile boolean running;
+
+	public NioEventLoop(String name) throws IOException {
+		this.selector = Selector.open();
+		this.tasks = new ConcurrentLinkedQueue<>();
+		this.scheduledTasks = new PriorityQueue<>(Comparator.comparingLong(scheduledTask -> scheduledTask.deadline));
+		this.running = true;
+		this.setName(name);
+		this.setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+		while (this.running) {
+			try {
+				final ScheduledTask nextScheduledTask = this.scheduledTasks.peek();
+				if (nextScheduledTask == null) {
+					this.selector.select();
+				}
+				else {
+					// select(0) would wait forever
+					this.selector.select(Math.max(1,
+							TimeUnit.NANOSECONDS.toMillis(nextScheduledTask.deadline - System.nanoTime())));
+				}
+				final Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					final SelectionKey selectionKey = iterator.next();
+					iterator.remove();
+					this.processSelectedKey(selectionKey);
+				}
+				this.runTasks();
+				this.runScheduledTasks();
+			}
+			catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		for (final SelectionKey selectionKey : this.selector.keys()) {
+			( (NioConnection) selectionKey.attachment() ).close();
+		}
+		try {
+			this.selector.close();
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void processSelectedKey(SelectionKey selectionKey) {
+		final NioConnection nioConnection = (NioConnection) selectionKey.attachment();
+		try {
+			if (selectionKey.isValid() && selectionKey.isConnectable()) {
+				nioConnection.onConnectable();
+			}
+			if (selectionKey.isValid() && selectionKey.isReadable()) {
+				nioConnection.onReadable();
+			}
+			if (selectionKey.isValid() && selectionKey.isWritable()) {
+				nioConnection.onWritable();
+			}
+		}
+		catch (final IOException e) {
+			nioConnection.close();
+		}
+		catch (final RuntimeException e) {
+			// A bug or a message no check caught must not end the loop and take every other connection with it
+			LOGGER.log(Level.WARNING, "Closing the connection to Peer [{0}] after an unexpected error: {1}",
+					new Object[] { nioConnection.getPeerManager().getName(), e });
+			e.printStackTrace();
+			nioConnection.close();
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while (( task = this.tasks.poll() ) != null) {
+			runTask(task);
+		}
+	}
+
+	private void runScheduledTasks() {
+		final long now = System.nanoTime();
+		while (!this.scheduledTasks.isEmpty() && this.scheduledTasks.peek().deadline - now <= 0) {
+			runTask(this.scheduledTasks.poll().task);
+		}
+	}
+
+	private static void runTask(Runnable task) {
+		try {
+			task.run();
+		}
+		catch (final RuntimeException e) {
+			LOGGER.log(Level.WARNING, "An event loop task failed: {0}", e);
+			e.printStackTrace();
+		}
+	}
+
+	/*
+	 * Runs task on the event loop once delayNanos have passed.
+	 */
+	public void schedule(Runnable task, long delayNanos) {
+		final ScheduledTask scheduledTask = new ScheduledTask(System.nanoTime() + delayNanos, task);
+		this.execute(() -> this.scheduledTasks.add(scheduledTask));
+	}
+
+	public void execute(Runnable task) {
+		this.tasks.add(task);
+		this.selector.wakeup();
+	}
+
+	public boolean inEventLoop() {
+		return Thread.currentThread() == this;
+	}
+
+	public Selector getSelector() {
+		return this.selector;
+	}
+
+	public void shutdown() {
+		this.running = false;
+		this.selector.wakeup();
+	}
+
+	private static class ScheduledTask {
+
+		private final long deadline;
+		private final Runnable task;
+
+		ScheduledTask(long deadline, Runnable task) {
+			this.deadline = deadline;
+			this.task = task;
+		}
+
+	}
+
+}
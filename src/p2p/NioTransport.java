@@ -0,0 +1,68 @@
+package p2p;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NioTransport {
+
+	private final NioEventLoop[] eventLoops;
+	private final AtomicInteger nextEventLoop;
+
+	public NioTransport(int eventLoopThreads, String peerProcessPeerId) throws IOException {
+		this.eventLoops = new NioEventLoop[eventLoopThreads];
+		for (int i = 0; i < eventLoopThreads; i++) {
+			this.eventLoops[i] = new NioEventLoop("Thread - Event Loop " + i + " - peerID [" + peerProcessPeerId
+					+ "]: ");
+		}
+		this.nextEventLoop = new AtomicInteger();
+	}
+
+	public void start() {
+		for (final NioEventLoop eventLoop : this.eventLoops) {
+			eventLoop.start();
+		}
+	}
+
+	/*
+	 * Hands a connected channel over to one of the event loops. For outgoing connections peerId is the expected
+	 * remote peer and share the one to request; for accepted connections both are null until the handshake arrives.
+	 */
+	public PeerManager register(SocketChannel socketChannel, String peerId, Share share, boolean isClient)
+			throws IOException {
+		socketChannel.configureBlocking(false);
+		socketChannel.socket().setTcpNoDelay(true);
+
+		final NioEventLoop eventLoop = this.eventLoops[Math.floorMod(this.nextEventLoop.getAndIncrement(),
+				this.eventLoops.length)];
+		final NioConnection nioConnection = new NioConnection(socketChannel, eventLoop, isClient);
+		final PeerManager peerManager = new PeerManager(new RemotePeerInfo(peerId, nioConnection), share);
+		nioConnection.setPeerManager(peerManager);
+		eventLoop.execute(nioConnection::register);
+		return peerManager;
+	}
+
+	/*
+	 * Starts connecting to address without waiting for the connection; it completes on the event loop.
+	 */
+	public PeerManager connect(InetSocketAddress address, String peerId, Share share) throws IOException {
+		final SocketChannel socketChannel = SocketChannel.open();
+		try {
+			socketChannel.configureBlocking(false);
+			socketChannel.connect(address);
+			return this.register(socketChannel, peerId, share, true);
+		}
+		catch (final IOException e) {
+			socketChannel.close();
+			throw e;
+		}
+	}
+
+	public void shutdown() {
+		for (final NioEventLoop eventLoop : this.eventLoops) {
+			eventLoop.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+package p2p;
+
+import java.util.BitSet;
+
+/*
+ * Download state of a piece that is being fetched in Constants.BLOCK_SIZE blocks, possibly from several neighbors
+ * at once. Blocks are written straight to the PieceStore as they arrive, so only this bookkeeping is kept in memory.
+ */
+public class PartialPiece {
+
+	private final int pieceIndex;
+	private final int pieceLength;
+	private final int noOfBlocks;
+	private final BitSet requestedBlocks;
+	private final BitSet receivedBlocks;
+	private int writtenBlocks;
+
+	public PartialPiece(int pieceIndex, int pieceLength) {
+		this.pieceIndex = pieceIndex;
+		this.pieceLength = pieceLength;
+		this.noOfBlocks = ( pieceLength + Constants.BLOCK_SIZE - 1 ) / Constants.BLOCK_SIZE;
+		this.requestedBlocks = new BitSet(this.noOfBlocks);
+		this.receivedBlocks = new BitSet(this.noOfBlocks);
+	}
+
+	/*
+	 * Reserves the next block nobody has requested yet and returns its index, or -1 if there is none.
+	 */
+	public synchronized int requestNextBlock() {
+		final int blockIndex = this.requestedBlocks.nextClearBit(0);
+		if (blockIndex >= this.noOfBlocks) {
+			return -1;
+		}
+		this.requestedBlocks.set(blockIndex);
+		return blockIndex;
+	}
+
+	/*
+	 * Endgame variant: returns a block that is requested elsewhere but still missing and not in excluded.
+	 */
+	public synchronized int requestMissingBlock(BitSet excluded) {
+		for (int blockIndex = this.receivedBlocks.nextClearBit(0); blockIndex < this.noOfBlocks; blockIndex = this
+				.receivedBlocks.nextClearBit(blockIndex + 1)) {
+			if (!excluded.get(blockIndex)) {
+				this.requestedBlocks.set(blockIndex);
+				return blockIndex;
+			}
+		}
+		return -1;
+	}
+
+	public synchronized void releaseBlock(int blockIndex) {
+		if (!this.receivedBlocks.get(blockIndex)) {
+			this.requestedBlocks.clear(blockIndex);
+		}
+	}
+
+	/*
+	 * Returns false if the block had already been received (a duplicate from endgame).
+	 */
+	public synchronized boolean receiveBlock(int blockIndex) {
+		if (this.receivedBlocks.get(blockIndex)) {
+			return false;
+		}
+		this.requestedBlocks.set(blockIndex);
+		this.receivedBlocks.set(blockIndex);
+		return true;
+	}
+
+	/*
+	 * Counts a received block that has reached the PieceStore. Returns true for the last one, which with write-behind
+	 * is not necessarily the last block received.
+	 */
+	public synchronized boolean blockWritten() {
+		return ++this.writtenBlocks == this.noOfBlocks;
+	}
+
+	public synchronized boolean hasUnrequestedBlocks() {
+		return this.requestedBlocks.nextClearBit(0) < this.noOfBlocks;
+	}
+
+	public int getPieceIndex() {
+		return this.pieceIndex;
+	}
+
+	public int getBlockOffset(int blockIndex) {
+		return blockIndex * Constants.BLOCK_SIZE;
+	}
+
+	public int getBlockLength(int blockIndex) {
+		return Math.min(Constants.BLOCK_SIZE, this.pieceLength - this.getBlockOffset(blockIndex));
+	}
+
+	public int getNoOfBlocks() {
+		return this.noOfBlocks;
+	}
+
+}
@@ -0,0 +1,177 @@
+package p2p;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Every peer this process knows how to reach, by peer ID. It starts out as PeerInfo.cfg and grows from PEER_EXCHANGE
+ * messages, so a peer missing from the local file, or one that restarted on another port, can still be found.
+ * Anyone can put any peer ID in a PEER_EXCHANGE, and peers leave without saying so, so the directory also notes when
+ * each peer last showed up over a connection of its own.
+ *
+ * A PEER_EXCHANGE payload is a run of entries of a 4 byte peer ID, a 2 byte port, a 1 byte host length and the host,
+ * starting with the sender's own. At most MAX_EXCHANGED_PEERS entries are sent.
+ *
+ * Repeated exchanges could otherwise fill the directory without bound, so it holds at most MAX_PEERS entries. A new
+ * entry past that replaces a learned peer that never showed up, or else the one seen longest ago. PeerInfo.cfg entries
+ * are never replaced.
+ */
+public class PeerDirectory {
+
+	private static final int MAX_EXCHANGED_PEERS = 50;
+	static final int MAX_PEERS = 4 * MAX_EXCHANGED_PEERS;
+
+	private final String selfPeerId;
+	private final Map<String, InetSocketAddress> addresses;
+	// From PeerInfo.cfg
+	private final Set<String> configuredPeerIds;
+	// System.nanoTime() of each peer's last handshake or open connection; peers only heard of are missing
+	private final Map<String, Long> lastSeenNanos;
+
+	public PeerDirectory(String selfPeerId) {
+		this.selfPeerId = selfPeerId;
+		this.addresses = new ConcurrentHashMap<>();
+		this.configuredPeerIds = ConcurrentHashMap.newKeySet();
+		this.lastSeenNanos = new ConcurrentHashMap<>();
+	}
+
+	/*
+	 * Adds a PeerInfo.cfg entry, which stays in the directory however many peers are learned.
+	 */
+	public synchronized void add(String peerId, String host, int port) {
+		this.configuredPeerIds.add(peerId);
+		this.addresses.put(peerId, InetSocketAddress.createUnresolved(host, port));
+	}
+
+	public boolean isConfigured(String peerId) {
+		return this.configuredPeerIds.contains(peerId);
+	}
+
+	public InetSocketAddress getAddress(String peerId) {
+		return this.addresses.get(peerId);
+	}
+
+	/*
+	 * Every known peer other than this one.
+	 */
+	public Set<String> getPeerIds() {
+		final Set<String> peerIds = new HashSet<>(this.addresses.keySet());
+		peerIds.remove(this.selfPeerId);
+		return peerIds;
+	}
+
+	public void markSeen(String peerId) {
+		this.lastSeenNanos.put(peerId, System.nanoTime());
+	}
+
+	/*
+	 * Every peer other than this one seen within the last expiryNanos.
+	 */
+	public Set<String> getLivePeerIds(long expiryNanos) {
+		final long now = System.nanoTime();
+		final Set<String> peerIds = new HashSet<>();
+		for (final Map.Entry<String, Long> lastSeen : this.lastSeenNanos.entrySet()) {
+			if (now - lastSeen.getValue() <= expiryNanos && !lastSeen.getKey().equals(this.selfPeerId)) {
+				peerIds.add(lastSeen.getKey());
+			}
+		}
+		return peerIds;
+	}
+
+	public byte[] toPayload() {
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		this.writeEntry(payload, this.selfPeerId);
+		int entries = 1;
+		for (final String peerId : this.addresses.keySet()) {
+			if (entries == MAX_EXCHANGED_PEERS) {
+				break;
+			}
+			if (!peerId.equals(this.selfPeerId)) {
+				this.writeEntry(payload, peerId);
+				entries++;
+			}
+		}
+		return payload.toByteArray();
+	}
+
+	private void writeEntry(ByteArrayOutputStream payload, String peerId) {
+		final InetSocketAddress address = this.addresses.get(peerId);
+		final byte[] host = address.getHostString().getBytes(StandardCharsets.US_ASCII);
+		payload.writeBytes(peerId.getBytes(StandardCharsets.US_ASCII));
+		payload.writeBytes(ByteBuffer.allocate(3).putShort((short) address.getPort()).put((byte) host.length).array());
+		payload.writeBytes(host);
+	}
+
+	/*
+	 * Adds the entries of a PEER_EXCHANGE payload from senderPeerId and returns the peer IDs that were new or had
+	 * moved. Only the sender's own entry may move a known peer; what it relays about others may be stale. A truncated
+	 * entry ends the payload.
+	 */
+	public synchronized List<String> merge(byte[] payload, String senderPeerId) {
+		final List<String> learned = new ArrayList<>();
+		final ByteBuffer byteBuffer = ByteBuffer.wrap(payload);
+		while (byteBuffer.remaining() >= 7) {
+			final byte[] peerId = new byte[4];
+			byteBuffer.get(peerId);
+			final int port = Short.toUnsignedInt(byteBuffer.getShort());
+			final int hostLength = Byte.toUnsignedInt(byteBuffer.get());
+			if (byteBuffer.remaining() < hostLength) {
+				break;
+			}
+			final byte[] host = new byte[hostLength];
+			byteBuffer.get(host);
+			final String learnedPeerId = new String(peerId, StandardCharsets.US_ASCII);
+			if (learnedPeerId.equals(this.selfPeerId) || hostLength == 0 || port == 0) {
+				continue;
+			}
+			final InetSocketAddress address = InetSocketAddress
+					.createUnresolved(new String(host, StandardCharsets.US_ASCII), port);
+			final InetSocketAddress knownAddress = this.addresses.get(learnedPeerId);
+			if (knownAddress == null ? this.makeRoom()
+					: learnedPeerId.equals(senderPeerId) && !knownAddress.equals(address)) {
+				this.addresses.put(learnedPeerId, address);
+				learned.add(learnedPeerId);
+			}
+		}
+		return learned;
+	}
+
+	/*
+	 * Returns false if the directory is full of PeerInfo.cfg entries and this peer.
+	 */
+	private boolean makeRoom() {
+		if (this.addresses.size() < MAX_PEERS) {
+			return true;
+		}
+		String evictedPeerId = null;
+		long evictedLastSeenNanos = 0;
+		for (final String peerId : this.addresses.keySet()) {
+			if (this.configuredPeerIds.contains(peerId) || peerId.equals(this.selfPeerId)) {
+				continue;
+			}
+			final Long lastSeenNanos = this.lastSeenNanos.get(peerId);
+			if (lastSeenNanos == null) {
+				evictedPeerId = peerId;
+				break;
+			}
+			if (evictedPeerId == null || lastSeenNanos - evictedLastSeenNanos < 0) {
+				evictedPeerId = peerId;
+				evictedLastSeenNanos = lastSeenNanos;
+			}
+		}
+		if (evictedPeerId == null) {
+			return false;
+		}
+		this.addresses.remove(evictedPeerId);
+		return true;
+	}
+
+}
@@ -0,0 +1,1096 @@
+package p2p;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * One connection to a neighbor. The blocking transport runs its receive loop on a thread of its own, platform or
+ * virtual according to ThreadMode; the selector transport drives it from an event loop instead.
+ */
+public class PeerManager implements Runnable {
+
+	private static final boolean doPrint = false;
+	private static final Logger LOGGER = CustomLogFormatter.getLogger();
+
+	private static String peerProcessPeerId;
+	private static DiskWriter diskWriter;
+	private static ThreadFactory connectionThreadFactory = ThreadFactories
+			.newThreadFactory(Constants.ThreadMode.PLATFORM, "Thread - Connection ");
+
+	private final RemotePeerInfo connectedPeer;
+	private Share share;
+	private volatile String name;
+	private Thread thread;
+	private boolean terminated;
+	// Set between reserveDiskSlot and the write or releaseDiskSlot that uses the slot up
+	private boolean diskSlotReserved;
+	private final AtomicBoolean availabilityWithdrawn = new AtomicBoolean(false);
+	// Completes once the neighbor's BitField has arrived; fails if the connection closes first
+	private final CompletableFuture<Void> established = new CompletableFuture<>();
+	// Reused for every request this connection chooses, so a PIECE or UNCHOKE does not allocate bitfields; only
+	// touched while handling this connection's messages
+	private final BitSet interestedBits = new BitSet();
+	private final BitSet unclaimedBits = new BitSet();
+
+	/*
+	 * share is the share to request on a client connection; a server connection learns it from the handshake and
+	 * passes null.
+	 */
+	public PeerManager(String peerId, Socket socket, boolean isClient, Share share) throws IOException {
+		this.connectedPeer = new RemotePeerInfo(peerId, socket);
+		this.share = share;
+		this.terminated = false;
+
+		/*
+		 * HandShaking
+		 */
+		final ScheduledFuture<?> handShakeTimeout = PeerProcess.closeOnTimeout(socket,
+				PeerProcess.getHandShakeTimeout());
+		try {
+			if (isClient) {
+				this.sendHandShakeMessage();
+				final HandShakeMessage receivedHandShakeMessage = this.connectedPeer.receiveHandShakeMessage();
+				// this.print("Client Received HandShake Message - " + receivedHandShakeMessage.toString());
+				this.onHandShake(receivedHandShakeMessage, isClient);
+			}
+			else {
+				final HandShakeMessage receivedHandShakeMessage = this.connectedPeer.receiveHandShakeMessage();
+				// this.print("Server Received HandShake Message - " + receivedHandShakeMessage.toString());
+				this.onHandShake(receivedHandShakeMessage, isClient);
+			}
+		}
+		finally {
+			handShakeTimeout.cancel(false);
+		}
+	}
+
+	/*
+	 * Used by the selector transport: the handshake arrives asynchronously and is passed to onHandShake.
+	 */
+	public PeerManager(RemotePeerInfo connectedPeer, Share share) {
+		this.connectedPeer = connectedPeer;
+		this.share = share;
+		this.terminated = false;
+	}
+
+	public void onHandShake(HandShakeMessage receivedHandShakeMessage, boolean isClient) throws IOException {
+		if (!Arrays.equals(receivedHandShakeMessage.getHeader(), Constants.HEADER_STRING.getBytes())) {
+			throw new ProtocolException("Unexpected handshake header");
+		}
+		// Reserved bytes: extension flags, then the info-hash of the share; the last one must stay zero
+		if (receivedHandShakeMessage.getZeroBits()[9] != 0) {
+			throw new ProtocolException("Handshake with the last reserved byte set");
+		}
+		final byte[] infoHash = receivedHandShakeMessage.getInfoHash();
+		this.connectedPeer.setBlockTransfers(PeerProcess.isBlockTransfers()
+				&& ( receivedHandShakeMessage.getZeroBits()[0] & Constants.EXTENSION_BLOCK_TRANSFERS ) != 0);
+		this.connectedPeer.setPeerExchange(PeerProcess.isDynamicMembership()
+				&& ( receivedHandShakeMessage.getZeroBits()[0] & Constants.EXTENSION_PEER_EXCHANGE ) != 0);
+		this.connectedPeer.setCompactBitField(
+				( receivedHandShakeMessage.getZeroBits()[0] & Constants.EXTENSION_COMPACT_BITFIELD ) != 0);
+		this.connectedPeer.setManifestExchange(PeerProcess.getPieceHashAlgorithm() != null
+				&& ( receivedHandShakeMessage.getZeroBits()[0] & Constants.EXTENSION_MANIFEST ) != 0);
+		if (isClient) {
+			if (!receivedHandShakeMessage.getPeerId().equals(this.connectedPeer.getPeerId())) {
+				throw new ProtocolException("Peer " + this.connectedPeer.getPeerId() + " answered as peer "
+						+ receivedHandShakeMessage.getPeerId());
+			}
+			if (!Arrays.equals(infoHash, this.share.getInfoHash())) {
+				throw new IOException("Peer answered for share " + Share.toKey(infoHash) + " instead of "
+						+ this.share.getKey());
+			}
+		}
+		else {
+			final String receivedPeerId = receivedHandShakeMessage.getPeerId();
+			this.connectedPeer.setPeerId(receivedPeerId);
+			this.share = PeerProcess.getShare(infoHash);
+			if (this.share == null) {
+				throw new IOException("Peer " + receivedPeerId + " asked for unknown share " + Share.toKey(infoHash));
+			}
+
+			this.sendHandShakeMessage();
+			final Share acceptedShare = this.share;
+			this.established.thenRun(() -> PeerProcess.onConnectionAccepted(receivedPeerId, acceptedShare));
+		}
+
+		this.setName("peer_ID " + this.connectedPeer.getPeerId());
+		PeerProcess.getPeerDirectory().markSeen(this.connectedPeer.getPeerId());
+		if (isClient) {
+			LOGGER.log(Level.INFO, "Peer [peer_ID {0}] makes a connection to Peer [{1}]",
+					new Object[] { peerProcessPeerId, this.getName() });
+		}
+		else {
+			LOGGER.log(Level.INFO, "Peer [peer_ID {0}] is connected from Peer [{1}]",
+					new Object[] { peerProcessPeerId, this.getName() });
+		}
+	}
+
+	public void sendHandShakeMessage() throws IOException {
+		byte extensionFlags = Constants.EXTENSION_COMPACT_BITFIELD;
+		if (PeerProcess.isBlockTransfers()) {
+			extensionFlags |= Constants.EXTENSION_BLOCK_TRANSFERS;
+		}
+		if (PeerProcess.isDynamicMembership()) {
+			extensionFlags |= Constants.EXTENSION_PEER_EXCHANGE;
+		}
+		if (PeerProcess.getPieceHashAlgorithm() != null) {
+			extensionFlags |= Constants.EXTENSION_MANIFEST;
+		}
+		this.connectedPeer.sendHandShakeMessage(peerProcessPeerId, extensionFlags, this.share.getInfoHash());
+	}
+
+	/*
+	 * Blocking transport only: starts the receive loop.
+	 */
+	public void start() {
+		this.thread = connectionThreadFactory.newThread(this);
+		this.thread.setName(this.name);
+		this.thread.start();
+	}
+
+	public void interrupt() {
+		if (this.thread != null) {
+			this.thread.interrupt();
+		}
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/*
+	 * Makes the connection visible to broadcasts from other connections of the share, and to JMX.
+	 */
+	public void addToShare() {
+		this.share.getPeerManagers().add(this);
+		Metrics.getDefault().registerConnection(this.connectedPeer.getMetrics(), this.share.getFileName());
+	}
+
+	public void exchangeBitfields() throws IOException {
+		/*
+		 * Exchange BitFields
+		 */
+		this.sendBitField();
+		// Only now may other connections broadcast to this peer, so nothing overtakes the BitField.
+		this.addToShare();
+		final ScheduledFuture<?> bitFieldTimeout = PeerProcess.closeOnTimeout(this.connectedPeer.getSocket(),
+				PeerProcess.getBitFieldTimeout());
+		final MessageView receivedMessage;
+		try {
+			receivedMessage = this.connectedPeer.receiveMessage();
+		}
+		finally {
+			bitFieldTimeout.cancel(false);
+		}
+		// this.print("Received BitField Message - " + receivedMessage.toString());
+		try {
+			this.connectedPeer.getMetrics().onMessageReceived(receivedMessage.getMessageType().ordinal());
+			if (!CompactBitField.isBitFieldMessage(receivedMessage.getMessageType())) {
+				throw new ProtocolException(receivedMessage.getMessageType() + " before the BitField");
+			}
+			this.onBitField(receivedMessage);
+		}
+		finally {
+			receivedMessage.release();
+		}
+	}
+
+	public void sendBitField() throws IOException {
+		final SuperSeeder superSeeder = this.share.getSuperSeeder();
+		// A super-seed reveals its pieces one HAVE at a time instead
+		final BitSet bitField = superSeeder != null && superSeeder.isActive() ? new BitSet()
+				: this.share.getBitField().toBitSet();
+		final Constants.ActualMessageType messageType = CompactBitField.selectMessageType(bitField,
+				this.share.getNoOfPieces(), this.connectedPeer.isCompactBitField());
+		this.connectedPeer.sendActualMessage(messageType.ordinal(),
+				CompactBitField.encode(messageType, bitField, this.share.getNoOfPieces()));
+		// The BitField must come first; after it a neighbor that exchanges peers learns every peer known here
+		// straight away rather than at the next exchange
+		if (this.connectedPeer.isPeerExchange()) {
+			this.connectedPeer.sendActualMessage(Constants.ActualMessageType.PEER_EXCHANGE.ordinal(),
+					PeerProcess.getPeerDirectory().toPayload());
+		}
+		if (this.connectedPeer.isManifestExchange() && !this.share.getPieceVerifier().hasManifest()) {
+			this.connectedPeer.sendActualMessage(Constants.ActualMessageType.MANIFEST_REQUEST.ordinal(), null);
+		}
+	}
+
+	private void onBitField(MessageView receivedMessage) throws IOException {
+		this.connectedPeer.setBitField(CompactBitField.decode(receivedMessage.getMessageType(),
+				receivedMessage.hasPayload() ? receivedMessage.getPayloadBytes() : null, this.share.getNoOfPieces()));
+		// this.print("Recieved BitField: " + this.connectedPeer.getBitField());
+		this.share.getPieceAvailability().addBitField(this.connectedPeer.getBitField());
+		this.recordIfNeighborComplete();
+		this.established.complete(null);
+
+		/*
+		 * Check and send Interested / Not-Interested
+		 */
+		if (this.hasInterestingPiece()) {
+			this.connectedPeer.sendActualMessage(Constants.ActualMessageType.INTERESTED.ordinal(), null);
+		}
+		else {
+			this.connectedPeer.sendActualMessage(Constants.ActualMessageType.NOT_INTERESTED.ordinal(), null);
+		}
+
+		final SuperSeeder superSeeder = this.share.getSuperSeeder();
+		if (superSeeder != null) {
+			final int offeredPiece = superSeeder.onBitField(this.connectedPeer);
+			if (offeredPiece != -1) {
+				this.connectedPeer.sendFrame(haveFrame(offeredPiece));
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			this.exchangeBitfields();
+
+			while (!this.isTerminated()) {
+				final MessageView receivedMessage = this.connectedPeer.receiveMessage();
+				// this.print("Actual Message: " + receivedMessage.toString());
+				try {
+					this.handleMessage(receivedMessage);
+				}
+				finally {
+					receivedMessage.release();
+				}
+			}
+		}
+		catch (final IOException e) {
+			if (!this.terminated) {
+				LOGGER.log(Level.WARNING, "Peer [peer_ID {0}] lost the connection to Peer [{1}]: {2}",
+						new Object[] { peerProcessPeerId, this.getName(), e });
+			}
+		}
+		finally {
+			this.onConnectionClosed();
+			this.connectedPeer.closeMessageReader();
+		}
+	}
+
+	/*
+	 * Withdraws this neighbor's pieces from the availability counts and the connection from its share, so a
+	 * neighbor that left is neither broadcast to nor counted towards TargetConnections. Safe to call more than once.
+	 */
+	public void onConnectionClosed() {
+		if (this.availabilityWithdrawn.compareAndSet(false, true) && this.connectedPeer.getBitField() != null) {
+			this.share.getPieceAvailability().removeBitField(this.connectedPeer.getBitField());
+		}
+		if (this.share != null && this.share.getSuperSeeder() != null) {
+			this.share.getSuperSeeder().remove(this.connectedPeer);
+		}
+		if (this.share != null) {
+			this.share.getPeerManagers().remove(this);
+			this.share.getInterestedNeighbors().remove(this.connectedPeer);
+			this.share.getPreferredNeighbors().remove(this.connectedPeer);
+		}
+		this.releaseOutstandingRequests();
+		Metrics.getDefault().unregisterConnection(this.connectedPeer.getMetrics());
+		this.established.completeExceptionally(new IOException("Connection to peer " + this.connectedPeer.getPeerId()
+				+ " closed before its BitField arrived"));
+	}
+
+	/*
+	 * The view is only valid for the duration of this call.
+	 */
+	public void handleMessage(MessageView receivedMessage) throws IOException {
+		this.connectedPeer.getMetrics().onMessageReceived(receivedMessage.getMessageType().ordinal());
+		// Every other message may refer to the neighbor's pieces, so its BitField comes first, and only once
+		if (CompactBitField.isBitFieldMessage(receivedMessage.getMessageType()) != ( this.connectedPeer
+				.getBitField() == null )) {
+			throw new ProtocolException(receivedMessage.getMessageType()
+					+ ( this.connectedPeer.getBitField() == null ? " before" : " after" ) + " the BitField");
+		}
+		switch (receivedMessage.getMessageType()) {
+			case CHOKE:
+				MessageReader.checkPayloadLength(receivedMessage, 0);
+				// The remote drops requests from choked peers; they are re-issued on the next UNCHOKE
+				this.releaseOutstandingRequests();
+				LOGGER.log(Level.INFO, "Peer [peer_ID {0}] is choked by [{1}]",
+						new Object[] { peerProcessPeerId, this.getName() });
+				break;
+
+			case UNCHOKE:
+				MessageReader.checkPayloadLength(receivedMessage, 0);
+				this.requestPieces();
+				if (this.connectedPeer.getOutstandingRequests().isEmpty()) {
+					this.connectedPeer.sendActualMessage(Constants.ActualMessageType.NOT_INTERESTED.ordinal(),
+							null);
+				}
+				LOGGER.log(Level.INFO, "Peer [peer_ID {0}] is unchoked by [{1}]",
+						new Object[] { peerProcessPeerId, this.getName() });
+				break;
+
+			case INTERESTED:
+				MessageReader.checkPayloadLength(receivedMessage, 0);
+				this.share.getInterestedNeighbors().add(this.connectedPeer);
+				// this.print("Interested Neighbors: " + interestedNeighbors);
+				LOGGER.log(Level.INFO, "Peer [peer_ID {0}] received the 'interested' message from Peer [{1}]",
+						new Object[] { peerProcessPeerId, this.getName() });
+				break;
+
+			case NOT_INTERESTED:
+				MessageReader.checkPayloadLength(receivedMessage, 0);
+				this.share.getInterestedNeighbors().remove(this.connectedPeer);
+				this.share.getPreferredNeighbors().remove(this.connectedPeer);
+				this.connectedPeer.setChoked(true);
+				// this.print("Interested Neighbors: " + interestedNeighbors);
+				LOGGER.log(Level.INFO, "Peer [peer_ID {0}] received the 'not interested' message from Peer [{1}]",
+						new Object[] { peerProcessPeerId, this.getName() });
+				break;
+
+			case HAVE:
+				MessageReader.checkPayloadLength(receivedMessage, 4);
+				int pieceIndex = this.checkPieceIndex(receivedMessage);
+				if (this.connectedPeer.setBitFieldIndex(pieceIndex)) {
+					this.share.getPieceAvailability().increment(pieceIndex);
+				}
+				this.recordIfNeighborComplete();
+				if (this.share.getSuperSeeder() != null) {
+					this.onSuperSeededHave(pieceIndex);
+				}
+				if (this.hasInterestingPiece()) {
+					this.connectedPeer.sendActualMessage(Constants.ActualMessageType.INTERESTED.ordinal(),
+							null);
+				}
+				LOGGER.log(Level.INFO,
+						"Peer [peer_ID {0}] received the 'have' message from Peer [{1}] for the piece [{2}]",
+						new Object[] { peerProcessPeerId, this.getName(), pieceIndex });
+				break;
+
+			case BITFIELD:
+			case BITFIELD_RUNS:
+			case HAVE_ALL:
+			case HAVE_NONE:
+				// Only the selector transport gets here; the blocking transport
+				// consumes the BitField in exchangeBitfields.
+				this.onBitField(receivedMessage);
+				break;
+
+			case REQUEST:
+				// 4 bytes for a whole piece; 12 (index, offset, length) for a block request
+				MessageReader.checkPayloadLength(receivedMessage, this.connectedPeer.isBlockTransfers() ? 12 : 4);
+				pieceIndex = this.checkPieceIndex(receivedMessage);
+				if (this.connectedPeer.isBlockTransfers()) {
+					MessageReader.checkRequestedRange(receivedMessage.getPayloadInt(4),
+							receivedMessage.getPayloadInt(8), this.share.getPieceStore().getPieceLength(pieceIndex));
+				}
+				if (this.share.getPreferredNeighbors().contains(this.connectedPeer)
+						|| this.connectedPeer.equals(this.share.getOptimisticallyUnchokedNeighbor())) {
+					if (this.connectedPeer.isBlockTransfers()) {
+						final int blockOffset = receivedMessage.getPayloadInt(4);
+						final int blockLength = receivedMessage.getPayloadInt(8);
+						this.connectedPeer.sendBlock(pieceIndex, blockOffset, blockLength, this.share.getPieceStore());
+					}
+					else {
+						this.connectedPeer.sendPiece(pieceIndex, this.share.getPieceStore());
+					}
+				}
+				break;
+
+			case PIECE:
+				// The index, for blocks also the offset, ahead of the data
+				final int dataOffset = this.connectedPeer.isBlockTransfers() ? 8 : 4;
+				if (receivedMessage.getPayloadLength() <= dataOffset) {
+					throw new ProtocolException("PIECE payload of " + receivedMessage.getPayloadLength() + " bytes");
+				}
+				pieceIndex = this.checkPieceIndex(receivedMessage);
+				final int pieceLength = this.share.getPieceStore().getPieceLength(pieceIndex);
+				if (this.connectedPeer.isBlockTransfers()) {
+					MessageReader.checkPieceData(receivedMessage.getPayloadInt(4),
+							receivedMessage.getPayloadLength() - dataOffset, pieceLength, Constants.BLOCK_SIZE);
+				}
+				else {
+					MessageReader.checkPieceData(0, receivedMessage.getPayloadLength() - dataOffset, pieceLength,
+							pieceLength);
+				}
+				// Counted whether or not the data is still needed; the neighbor spent the bandwidth either way
+				this.connectedPeer.getDownloadMeter().add(receivedMessage.getPayloadLength() - dataOffset);
+				if (this.connectedPeer.isBlockTransfers()) {
+					final int blockOffset = receivedMessage.getPayloadInt(4);
+					final int blockIndex = blockOffset / Constants.BLOCK_SIZE;
+					if (this.connectedPeer.getOutstandingRequests().remove(requestKey(pieceIndex, blockIndex))) {
+						this.connectedPeer.getMetrics().onRequestAnswered(requestKey(pieceIndex, blockIndex));
+					}
+					final PartialPiece partialPiece = this.share.getPartialPieces().get(pieceIndex);
+					if (partialPiece != null && partialPiece.receiveBlock(blockIndex)) {
+						this.cancelDuplicateRequests(requestKey(pieceIndex, blockIndex));
+						this.writeBlock(pieceIndex, blockOffset, receivedMessage, 8, written -> {
+							if (!written) {
+								// Every block of the piece in a failed batch lands here; the first one discards it
+								if (this.share.getPartialPieces().remove(pieceIndex, partialPiece)) {
+									this.onPieceRejected(pieceIndex, "it could not be written");
+								}
+							}
+							else if (partialPiece.blockWritten()) {
+								this.onPieceReceived(pieceIndex);
+							}
+						});
+					}
+				}
+				else {
+					if (this.connectedPeer.getOutstandingRequests().remove(requestKey(pieceIndex, 0))) {
+						this.connectedPeer.getMetrics().onRequestAnswered(requestKey(pieceIndex, 0));
+					}
+					if (this.share.getPiecesBeingVerified().add(pieceIndex)) {
+						// Checked after add: a piece leaves the set only once its bit is set
+						if (this.hasPiece(pieceIndex)) {
+							this.share.getPiecesBeingVerified().remove(pieceIndex);
+						}
+						else {
+							this.writeBlock(pieceIndex, 0, receivedMessage, 4, written -> {
+								if (written) {
+									this.onPieceReceived(pieceIndex);
+								}
+								else {
+									this.onPieceRejected(pieceIndex, "it could not be written");
+								}
+							});
+						}
+					}
+				}
+
+				// Keep the request pipeline full
+				this.requestPieces();
+				if (this.connectedPeer.getOutstandingRequests().isEmpty()) {
+					this.connectedPeer.sendActualMessage(Constants.ActualMessageType.NOT_INTERESTED.ordinal(),
+							null);
+				}
+				break;
+
+			case TERMINATE:
+				MessageReader.checkPayloadLength(receivedMessage, 0);
+				this.terminated = true;
+				break;
+
+			case CANCEL:
+				// Same layout as the REQUEST being cancelled
+				MessageReader.checkPayloadLength(receivedMessage, this.connectedPeer.isBlockTransfers() ? 12 : 4);
+				pieceIndex = this.checkPieceIndex(receivedMessage);
+				this.connectedPeer.cancelPiece(pieceIndex,
+						this.connectedPeer.isBlockTransfers() ? receivedMessage.getPayloadInt(4) : 0);
+				break;
+
+			case MANIFEST_REQUEST:
+				if (!this.connectedPeer.isManifestExchange()) {
+					break;
+				}
+				this.connectedPeer.setManifestRequested(true);
+				// Checked after the flag is set, so a manifest arriving meanwhile on another thread is not missed
+				if (this.share.getPieceVerifier().hasManifest()) {
+					this.sendManifest(this.connectedPeer);
+				}
+				break;
+
+			case MANIFEST:
+				if (!this.connectedPeer.isManifestExchange()) {
+					break;
+				}
+				this.onManifest(Manifest.fromPayload(receivedMessage.getPayloadBytes(),
+						PeerProcess.getPieceHashAlgorithm(), this.share.getFileSize(), this.share.getPieceSize()));
+				break;
+
+			case PEER_EXCHANGE:
+				if (!this.connectedPeer.isPeerExchange() || !receivedMessage.hasPayload()) {
+					break;
+				}
+				for (final String learnedPeerId : PeerProcess.getPeerDirectory()
+						.merge(receivedMessage.getPayloadBytes(), this.connectedPeer.getPeerId())) {
+					LOGGER.log(Level.INFO, "Peer [peer_ID {0}] learned the address of Peer [peer_ID {1}] from [{2}]",
+							new Object[] { peerProcessPeerId, learnedPeerId, this.getName() });
+				}
+				break;
+		}
+	}
+
+	private int checkPieceIndex(MessageView receivedMessage) throws ProtocolException {
+		return MessageReader.checkPieceIndex(receivedMessage.getPayloadInt(0), this.share.getNoOfPieces());
+	}
+
+	private void sendManifest(RemotePeerInfo neighbor) throws IOException {
+		neighbor.setManifestRequested(false);
+		neighbor.sendActualMessage(Constants.ActualMessageType.MANIFEST.ordinal(),
+				this.share.getPieceVerifier().getManifest().toPayload());
+	}
+
+	/*
+	 * Takes the first manifest to arrive, answers the neighbors that asked for it in vain, and checks the pieces an
+	 * earlier run left behind. Pieces already waiting for verification proceed on their own.
+	 */
+	private void onManifest(Manifest manifest) throws IOException {
+		if (!this.share.getPieceVerifier().offerManifest(manifest)) {
+			return;
+		}
+		LOGGER.log(Level.INFO, "Peer [peer_ID {0}] received the manifest of {1} from Peer [{2}]",
+				new Object[] { peerProcessPeerId, this.share.getFileName(), this.getName() });
+		for (final PeerManager peerManager : this.share.getPeerManagers()) {
+			if (peerManager.getConnectedPeer().isManifestRequested()) {
+				this.sendManifest(peerManager.getConnectedPeer());
+			}
+		}
+
+		final BitSet resumedPieces = this.share.takeUnverifiedResumedPieces();
+		if (resumedPieces == null) {
+			return;
+		}
+		for (int pieceIndex = resumedPieces.nextSetBit(0); pieceIndex >= 0; pieceIndex = resumedPieces
+				.nextSetBit(pieceIndex + 1)) {
+			final int resumedPieceIndex = pieceIndex;
+			this.share.getPieceVerifier().verify(resumedPieceIndex).whenComplete((valid, throwable) -> {
+				try {
+					if (throwable == null && valid) {
+						this.onPieceVerified(resumedPieceIndex, false);
+					}
+					else {
+						LOGGER.log(Level.WARNING,
+								"Peer [peer_ID {0}] discarded the resumed piece [{1}] because it does not match the "
+										+ "manifest",
+								new Object[] { peerProcessPeerId, resumedPieceIndex });
+						this.share.getBitFieldStore().clearPiece(resumedPieceIndex);
+						this.discardPiece(resumedPieceIndex);
+					}
+				}
+				catch (final IOException e) {
+					LOGGER.log(Level.WARNING, "Peer [peer_ID {0}] could not record the resumed piece [{1}]: {2}",
+							new Object[] { peerProcessPeerId, resumedPieceIndex, e });
+				}
+			});
+		}
+	}
+
+	/*
+	 * For event loops, which must not wait for the DiskWriter: takes the queue slot the next PIECE will be written
+	 * through before it is handled. Returns false, and calls onSlotFreed later, if there is none.
+	 */
+	boolean reserveDiskSlot(Runnable onSlotFreed) {
+		if (diskWriter == null || diskWriter.tryReserve(onSlotFreed)) {
+			this.diskSlotReserved = diskWriter != null;
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Gives back the slot reserveDiskSlot took if the PIECE did not need it.
+	 */
+	void releaseDiskSlot() {
+		if (this.diskSlotReserved) {
+			this.diskSlotReserved = false;
+			diskWriter.unreserve();
+		}
+	}
+
+	/*
+	 * Stores the part of the PIECE payload after its payloadOffset-byte header, inline or through the DiskWriter.
+	 * The callback runs once the data is in the PieceStore.
+	 */
+	private void writeBlock(int pieceIndex, int offsetInPiece, MessageView receivedMessage, int payloadOffset,
+			DiskWriter.WriteCallback writeCallback) throws IOException {
+		final int offset = receivedMessage.getPayloadOffset() + payloadOffset;
+		final int length = receivedMessage.getPayloadLength() - payloadOffset;
+		if (diskWriter != null) {
+			if (!this.diskSlotReserved) {
+				diskWriter.reserve();
+			}
+			this.diskSlotReserved = false;
+			diskWriter.write(this.share.getPieceStore(), pieceIndex, offsetInPiece, receivedMessage.getBuffer(), offset,
+					length, writeCallback);
+			return;
+		}
+		boolean written = false;
+		try {
+			this.share.getPieceStore()
+					.writeBlock(pieceIndex, offsetInPiece, receivedMessage.getBuffer(), offset, length);
+			written = true;
+		}
+		finally {
+			writeCallback.onWritten(written);
+		}
+	}
+
+	/*
+	 * Called once every byte of the piece is in the PieceStore. With a PieceHashAlgorithm configured the piece is
+	 * hashed on the verification pool and only counted once it matches the manifest.
+	 */
+	private void onPieceReceived(int pieceIndex) throws IOException {
+		if (this.share.getPieceVerifier() == null) {
+			this.onPieceVerified(pieceIndex, true);
+			return;
+		}
+		// Waits for the manifest if it has not arrived yet
+		this.share.getPieceVerifier().verify(pieceIndex).whenComplete((valid, throwable) -> {
+			try {
+				if (throwable != null) {
+					LOGGER.log(Level.WARNING, "Peer [peer_ID {0}] could not read back the piece [{1}]: {2}",
+							new Object[] { peerProcessPeerId, pieceIndex, throwable });
+					this.onPieceRejected(pieceIndex, "it could not be read back");
+				}
+				else if (valid) {
+					this.onPieceVerified(pieceIndex, true);
+				}
+				else {
+					this.onPieceRejected(pieceIndex, "it does not match the manifest");
+				}
+			}
+			catch (final IOException e) {
+				LOGGER.log(Level.WARNING, "Peer [peer_ID {0}] could not record the piece [{1}]: {2}",
+						new Object[] { peerProcessPeerId, pieceIndex, e });
+			}
+		});
+	}
+
+	/*
+	 * downloaded is false for a piece an earlier run left behind.
+	 */
+	private void onPieceVerified(int pieceIndex, boolean downloaded) throws IOException {
+		final boolean newPiece = this.onPieceCompleted(pieceIndex, downloaded);
+		this.share.getPiecesBeingVerified().remove(pieceIndex);
+
+		// Check if complete file received
+		if (newPiece && this.share.getBitField().isComplete()) {
+
+			this.share.getPieceStore().force();
+			if (this.share.getBitFieldStore() != null) {
+				this.share.getBitFieldStore().force();
+			}
+			this.share.setHasFile(true);
+
+			LOGGER.log(Level.INFO, "Peer [peer_ID {0}] has downloaded the complete file", peerProcessPeerId);
+
+			for (final PeerManager peerManager : this.share.getPeerManagers()) {
+				peerManager.getConnectedPeer().sendActualMessage(Constants.ActualMessageType.NOT_INTERESTED.ordinal(),
+						null);
+			}
+		}
+	}
+
+	/*
+	 * Throws the piece away and lets it be downloaded again, possibly from another neighbor.
+	 */
+	private void onPieceRejected(int pieceIndex, String reason) throws IOException {
+		LOGGER.log(Level.WARNING, "Peer [peer_ID {0}] discarded the piece [{1}] from Peer [{2}] because {3}",
+				new Object[] { peerProcessPeerId, pieceIndex, this.getName(), reason });
+		this.discardPiece(pieceIndex);
+	}
+
+	private void discardPiece(int pieceIndex) throws IOException {
+		this.share.getPartialPieces().remove(pieceIndex);
+		this.share.getPieceClaimTable().release(pieceIndex);
+		this.share.getPiecesBeingVerified().remove(pieceIndex);
+
+		// Neighbors holding the piece may have been told we were no longer interested in the meantime
+		for (final PeerManager peerManager : this.share.getPeerManagers()) {
+			final CompactBitField neighborBitField = peerManager.getConnectedPeer().getBitField();
+			if (neighborBitField != null && neighborBitField.get(pieceIndex)) {
+				peerManager.getConnectedPeer().sendActualMessage(Constants.ActualMessageType.INTERESTED.ordinal(),
+						null);
+			}
+		}
+	}
+
+	private void recordIfNeighborComplete() {
+		if (this.connectedPeer.getBitField().isComplete()) {
+			this.share.getCompletePeers().add(this.connectedPeer.getPeerId());
+		}
+	}
+
+	private boolean hasPiece(int pieceIndex) {
+		return this.share.getBitField().get(pieceIndex);
+	}
+
+	/*
+	 * Marks the piece as downloaded and announces it. Returns false if it had already been completed through another
+	 * connection.
+	 */
+	private boolean onPieceCompleted(int pieceIndex, boolean downloaded) throws IOException {
+		final boolean newPiece = this.share.getBitField().set(pieceIndex);
+		this.share.getPartialPieces().remove(pieceIndex);
+		this.share.getPieceClaimTable().release(pieceIndex);
+		if (!newPiece) {
+			return false;
+		}
+		if (this.share.getBitFieldStore() != null && downloaded) {
+			this.share.getPieceStore().force(pieceIndex);
+			this.share.getBitFieldStore().setPiece(pieceIndex);
+		}
+
+		if (downloaded) {
+			Metrics.getDefault().onPieceCompleted();
+			LOGGER.log(Level.INFO, "Peer [peer_ID {0}] has downloaded the piece [{1}] from Peer [{2}]",
+					new Object[] { peerProcessPeerId, pieceIndex, this.getName() });
+		}
+		else {
+			LOGGER.log(Level.INFO, "Peer [peer_ID {0}] verified the resumed piece [{1}]",
+					new Object[] { peerProcessPeerId, pieceIndex });
+		}
+
+		// Notify others that I have this piece, and cancel endgame duplicates still in flight
+		final byte[] haveFrame = haveFrame(pieceIndex);
+		for (final PeerManager peerManager : this.share.getPeerManagers()) {
+			final RemotePeerInfo neighbor = peerManager.getConnectedPeer();
+			final Iterator<Long> requestIterator = neighbor.getOutstandingRequests().iterator();
+			while (requestIterator.hasNext()) {
+				final long requestKey = requestIterator.next();
+				if (pieceOf(requestKey) == pieceIndex) {
+					requestIterator.remove();
+					peerManager.sendRequestMessage(Constants.ActualMessageType.CANCEL, requestKey);
+				}
+			}
+			final CompactBitField neighborBitField = neighbor.getBitField();
+			if (!PeerProcess.isSendRedundantHave() && neighborBitField != null && neighborBitField.get(pieceIndex)) {
+				neighbor.suppressHave(pieceIndex);
+			}
+			else {
+				neighbor.sendFrame(haveFrame);
+			}
+		}
+		if (!PeerProcess.isSendRedundantHave() && this.share.getBitField().isComplete()) {
+			this.sendSuppressedHaves();
+		}
+		return true;
+	}
+
+	/*
+	 * Neighbors only shut down once every bitfield they hold is complete, so suppressed HAVEs are owed once the file
+	 * is. Every thread that completes a piece checks after its own broadcast, so the last one sends whatever the
+	 * others suppressed.
+	 */
+	private void sendSuppressedHaves() throws IOException {
+		for (final PeerManager peerManager : this.share.getPeerManagers()) {
+			final BitSet suppressedHaves = peerManager.getConnectedPeer().takeSuppressedHaves();
+			for (int i = suppressedHaves.nextSetBit(0); i >= 0; i = suppressedHaves.nextSetBit(i + 1)) {
+				peerManager.getConnectedPeer().sendFrame(haveFrame(i));
+			}
+		}
+	}
+
+	/*
+	 * Sends the offers a HAVE earned and, once the swarm holds every piece, announces whatever was never offered.
+	 */
+	private void onSuperSeededHave(int pieceIndex) throws IOException {
+		final SuperSeeder superSeeder = this.share.getSuperSeeder();
+		for (final Map.Entry<RemotePeerInfo, Integer> offer : superSeeder.onHave(this.connectedPeer, pieceIndex)
+				.entrySet()) {
+			offer.getKey().sendFrame(haveFrame(offer.getValue()));
+		}
+		if (!superSeeder.finish()) {
+			return;
+		}
+		LOGGER.log(Level.INFO, "Peer [peer_ID {0}] stopped super-seeding {1} after uploading {2} bytes",
+				new Object[] { peerProcessPeerId, this.share.getFileName(), Metrics.getDefault().getBytesUploaded() });
+		for (final PeerManager peerManager : this.share.getPeerManagers()) {
+			final RemotePeerInfo neighbor = peerManager.getConnectedPeer();
+			final BitSet offeredPieces = superSeeder.getOfferedPieces(neighbor);
+			for (int i = 0; i < this.share.getNoOfPieces(); i++) {
+				if (!offeredPieces.get(i) && neighbor.getBitField() != null && !neighbor.getBitField().get(i)) {
+					neighbor.sendFrame(haveFrame(i));
+				}
+			}
+		}
+	}
+
+	private static byte[] haveFrame(int pieceIndex) throws IOException {
+		final byte[] havePayload = ByteBuffer.allocate(4).putInt(pieceIndex).array();
+		return new ActualMessages(1 + havePayload.length, Constants.ActualMessageType.HAVE.ordinal(), havePayload)
+				.getActualMessage();
+	}
+
+	private void cancelDuplicateRequests(long requestKey) throws IOException {
+		for (final PeerManager peerManager : this.share.getPeerManagers()) {
+			if (peerManager.getConnectedPeer().getOutstandingRequests().remove(requestKey)) {
+				peerManager.sendRequestMessage(Constants.ActualMessageType.CANCEL, requestKey);
+			}
+		}
+	}
+
+	/*
+	 * Sends REQUESTs until MaxOutstandingRequests pieces (or blocks) are in flight on this connection, so the link is
+	 * never idle for a round trip between pieces.
+	 */
+	private void requestPieces() throws IOException {
+		final Set<Long> outstandingRequests = this.connectedPeer.getOutstandingRequests();
+		while (outstandingRequests.size() < PeerProcess.getMaxOutstandingRequests()) {
+			final long requestKey = this.connectedPeer.isBlockTransfers() ? this.selectBlockToRequest()
+					: this.selectPieceToRequest();
+			if (requestKey == -1) {
+				break;
+			}
+			outstandingRequests.add(requestKey);
+			this.sendRequestMessage(Constants.ActualMessageType.REQUEST, requestKey);
+		}
+	}
+
+	/*
+	 * REQUEST and CANCEL share a layout: the piece index, followed by block offset and length when the connection
+	 * negotiated block transfers.
+	 */
+	private void sendRequestMessage(Constants.ActualMessageType messageType, long requestKey) throws IOException {
+		final int pieceIndex = pieceOf(requestKey);
+		final byte[] requestPayload;
+		if (this.connectedPeer.isBlockTransfers()) {
+			final int blockOffset = blockOf(requestKey) * Constants.BLOCK_SIZE;
+			final int blockLength = Math.min(Constants.BLOCK_SIZE,
+					this.share.getPieceStore().getPieceLength(pieceIndex) - blockOffset);
+			requestPayload = ByteBuffer.allocate(12).putInt(pieceIndex).putInt(blockOffset).putInt(blockLength)
+					.array();
+		}
+		else {
+			requestPayload = ByteBuffer.allocate(4).putInt(pieceIndex).array();
+		}
+		if (messageType == Constants.ActualMessageType.REQUEST) {
+			this.connectedPeer.getMetrics().onRequestSent(requestKey);
+		}
+		else {
+			this.connectedPeer.getMetrics().forgetRequest(requestKey);
+		}
+		this.connectedPeer.sendActualMessage(messageType.ordinal(), requestPayload);
+	}
+
+	private void releaseOutstandingRequests() {
+		final Iterator<Long> iterator = this.connectedPeer.getOutstandingRequests().iterator();
+		while (iterator.hasNext()) {
+			final long requestKey = iterator.next();
+			iterator.remove();
+			this.connectedPeer.getMetrics().forgetRequest(requestKey);
+			if (this.connectedPeer.isBlockTransfers()) {
+				// The piece stays claimed; any connection that has it can pick up the released block
+				final PartialPiece partialPiece = this.share.getPartialPieces().get(pieceOf(requestKey));
+				if (partialPiece != null) {
+					partialPiece.releaseBlock(blockOf(requestKey));
+				}
+			}
+			else {
+				// Only if this connection still holds it: an endgame duplicate or a claim taken over stays put
+				this.share.getPieceClaimTable().release(pieceOf(requestKey), this);
+			}
+		}
+	}
+
+	/*
+	 * Whether the neighbor has a piece this peer lacks and is not verifying. Walks both bitfields in step, so it
+	 * allocates nothing and stops at the first such piece.
+	 */
+	boolean hasInterestingPiece() {
+		final CompactBitField connectedPeerBitField = this.connectedPeer.getBitField();
+		int pieceIndex = connectedPeerBitField.nextSetBit(0);
+		while (pieceIndex >= 0) {
+			final int missingPieceIndex = this.share.getBitField().nextClearBit(pieceIndex);
+			if (missingPieceIndex == -1) {
+				return false;
+			}
+			if (missingPieceIndex == pieceIndex && !this.share.getPiecesBeingVerified().contains(pieceIndex)) {
+				return true;
+			}
+			pieceIndex = connectedPeerBitField.nextSetBit(Math.max(missingPieceIndex, pieceIndex + 1));
+		}
+		return false;
+	}
+
+	private long selectPieceToRequest() {
+		final BitSet interestedBits = this.getInterestedBits();
+		if (interestedBits.isEmpty()) {
+			return -1;
+		}
+		for (final long outstandingRequestKey : this.connectedPeer.getOutstandingRequests()) {
+			interestedBits.clear(pieceOf(outstandingRequestKey));
+		}
+
+		final int requestPieceIndex = this.claimPiece(interestedBits);
+		if (requestPieceIndex != -1) {
+			return requestKey(requestPieceIndex, 0);
+		}
+
+		/*
+		 * Endgame: everything left is already requested elsewhere. Near the end of the download it is cheaper to
+		 * duplicate those requests than to wait on the slowest neighbor; the loser is cancelled on arrival.
+		 */
+		if (this.isEndgame()) {
+			final int duplicatePieceIndex = this.selectPiece(interestedBits);
+			return duplicatePieceIndex == -1 ? -1 : requestKey(duplicatePieceIndex, 0);
+		}
+		return -1;
+	}
+
+	private long selectBlockToRequest() {
+		final CompactBitField connectedPeerBitField = this.connectedPeer.getBitField();
+
+		// Help finish pieces already under way before starting new ones
+		for (final PartialPiece partialPiece : this.share.getPartialPieces().values()) {
+			if (connectedPeerBitField.get(partialPiece.getPieceIndex())) {
+				final int blockIndex = partialPiece.requestNextBlock();
+				if (blockIndex != -1) {
+					return requestKey(partialPiece.getPieceIndex(), blockIndex);
+				}
+			}
+		}
+
+		final BitSet interestedBits = this.getInterestedBits();
+		int requestPieceIndex;
+		while (( requestPieceIndex = this.claimPiece(interestedBits) ) != -1) {
+			interestedBits.clear(requestPieceIndex);
+			final PartialPiece partialPiece = this.share.getPartialPieces().computeIfAbsent(requestPieceIndex,
+					index -> new PartialPiece(index, this.share.getPieceStore().getPieceLength(index)));
+			final int blockIndex = partialPiece.requestNextBlock();
+			if (blockIndex != -1) {
+				return requestKey(requestPieceIndex, blockIndex);
+			}
+		}
+
+		if (this.isEndgame()) {
+			for (final PartialPiece partialPiece : this.share.getPartialPieces().values()) {
+				if (connectedPeerBitField.get(partialPiece.getPieceIndex())) {
+					final BitSet ownBlocks = new BitSet();
+					for (final long outstandingRequestKey : this.connectedPeer.getOutstandingRequests()) {
+						if (pieceOf(outstandingRequestKey) == partialPiece.getPieceIndex()) {
+							ownBlocks.set(blockOf(outstandingRequestKey));
+						}
+					}
+					final int blockIndex = partialPiece.requestMissingBlock(ownBlocks);
+					if (blockIndex != -1) {
+						return requestKey(partialPiece.getPieceIndex(), blockIndex);
+					}
+				}
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Picks a candidate no other connection is downloading and claims it, or returns -1.
+	 */
+	private int claimPiece(BitSet candidates) {
+		final BitSet unclaimedBits = this.unclaimedBits;
+		unclaimedBits.clear();
+		unclaimedBits.or(candidates);
+		this.share.getPieceClaimTable().clearClaimed(unclaimedBits);
+		int pieceIndex;
+		while (( pieceIndex = this.selectPiece(unclaimedBits) ) != -1) {
+			if (this.share.getPieceClaimTable().tryClaim(pieceIndex, this)) {
+				return pieceIndex;
+			}
+			// Lost the race to another connection
+			unclaimedBits.clear(pieceIndex);
+		}
+		return -1;
+	}
+
+	private int selectPiece(BitSet candidates) {
+		if (PeerProcess.getPieceSelectionStrategy() == Constants.PieceSelectionStrategy.RAREST_FIRST) {
+			return this.share.getPieceAvailability().selectRarest(candidates);
+		}
+		return this.selectRandomBit(candidates);
+	}
+
+	private boolean isEndgame() {
+		return this.share.getNoOfPieces() - this.share.getBitField().cardinality() <= PeerProcess.getEndgamePieces();
+	}
+
+	/*
+	 * The pieces the neighbor has and this peer lacks, in the connection's scratch set; valid until the next call.
+	 */
+	private BitSet getInterestedBits() {
+		final BitSet interestedBits = this.interestedBits;
+		this.connectedPeer.getBitField().copyInto(interestedBits);
+		this.share.getBitField().removeFrom(interestedBits);
+		// Held, possibly until the manifest arrives; they are only fetched again if they fail
+		for (final int pieceIndex : this.share.getPiecesBeingVerified()) {
+			interestedBits.clear(pieceIndex);
+		}
+		// this.print("Interested Bits: " + interestedBits);
+		return interestedBits;
+	}
+
+	private int selectRandomBit(BitSet bitSet) {
+		if (bitSet.isEmpty()) {
+			return -1;
+		}
+		else {
+			final int randomIndex = ThreadLocalRandom.current().nextInt(bitSet.length());
+			// this.print("Random Index: " + randomIndex);
+			return bitSet.nextSetBit(randomIndex);
+		}
+	}
+
+	private static long requestKey(int pieceIndex, int blockIndex) {
+		return (long) pieceIndex << 32 | blockIndex;
+	}
+
+	private static int pieceOf(long requestKey) {
+		return (int) ( requestKey >>> 32 );
+	}
+
+	private static int blockOf(long requestKey) {
+		return (int) requestKey;
+	}
+
+	private void print(String string) {
+		if (doPrint) {
+			System.out.println(string);
+		}
+	}
+
+	public static String getPeerProcessPeerId() {
+		return peerProcessPeerId;
+	}
+
+	public static void setPeerProcessPeerId(String peerProcessPeerId) {
+		PeerManager.peerProcessPeerId = peerProcessPeerId;
+	}
+
+	public static void setConnectionThreadFactory(ThreadFactory connectionThreadFactory) {
+		PeerManager.connectionThreadFactory = connectionThreadFactory;
+	}
+
+	public static DiskWriter getDiskWriter() {
+		return diskWriter;
+	}
+
+	public static void setDiskWriter(DiskWriter diskWriter) {
+		PeerManager.diskWriter = diskWriter;
+	}
+
+	public CompletableFuture<Void> getEstablished() {
+		return this.established;
+	}
+
+	public boolean isEstablished() {
+		return this.established.isDone() && !this.established.isCompletedExceptionally();
+	}
+
+	public boolean isTerminated() {
+		return this.terminated;
+	}
+
+	public void setTerminated(boolean terminated) {
+		this.terminated = terminated;
+	}
+
+	public RemotePeerInfo getConnectedPeer() {
+		return this.connectedPeer;
+	}
+
+	public Share getShare() {
+		return this.share;
+	}
+
+}
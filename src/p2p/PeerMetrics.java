@@ -0,0 +1,197 @@
+package p2p;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+/*
+ * Counters for one connection, fed by the send and receive paths and rolled up into the process-wide Metrics as they
+ * are counted. Request latency runs from handing a REQUEST to the transport to the matching PIECE arriving, so it
+ * includes time the request spent queued behind other messages as well as the neighbor's own upload queue.
+ */
+public class PeerMetrics implements PeerMetricsMBean {
+
+	private final RemotePeerInfo remotePeerInfo;
+	private final Metrics metrics;
+	private final LongAdder bytesUploaded;
+	private final LongAdder bytesDownloaded;
+	// Indexed by ActualMessageType ordinal
+	private final AtomicLongArray messagesSent;
+	private final AtomicLongArray messagesReceived;
+	private final Map<Long, Long> requestSentNanos;
+	private final LatencyHistogram requestLatency;
+
+	private volatile String fileName;
+	private volatile ObjectName objectName;
+
+	public PeerMetrics(RemotePeerInfo remotePeerInfo, Metrics metrics) {
+		this.remotePeerInfo = remotePeerInfo;
+		this.metrics = metrics;
+		this.bytesUploaded = new LongAdder();
+		this.bytesDownloaded = new LongAdder();
+		this.messagesSent = new AtomicLongArray(Constants.ActualMessageType.values().length);
+		this.messagesReceived = new AtomicLongArray(Constants.ActualMessageType.values().length);
+		this.requestSentNanos = new ConcurrentHashMap<>();
+		this.requestLatency = new LatencyHistogram();
+	}
+
+	public void addBytesUploaded(long bytes) {
+		this.bytesUploaded.add(bytes);
+		this.metrics.addBytesUploaded(bytes);
+	}
+
+	public void addBytesDownloaded(long bytes) {
+		this.bytesDownloaded.add(bytes);
+		this.metrics.addBytesDownloaded(bytes);
+	}
+
+	public void onMessageSent(int messageType) {
+		this.messagesSent.incrementAndGet(messageType);
+	}
+
+	public void onMessageReceived(int messageType) {
+		this.messagesReceived.incrementAndGet(messageType);
+	}
+
+	public void onRequestSent(long requestKey) {
+		this.requestSentNanos.put(requestKey, System.nanoTime());
+	}
+
+	/*
+	 * Called when the PIECE for an outstanding request arrives.
+	 */
+	public void onRequestAnswered(long requestKey) {
+		final Long sentNanos = this.requestSentNanos.remove(requestKey);
+		if (sentNanos != null) {
+			final long latencyNanos = System.nanoTime() - sentNanos;
+			this.requestLatency.recordNanos(latencyNanos);
+			this.metrics.getRequestLatency().recordNanos(latencyNanos);
+		}
+	}
+
+	/*
+	 * Called when a request is released or cancelled without an answer.
+	 */
+	public void forgetRequest(long requestKey) {
+		this.requestSentNanos.remove(requestKey);
+	}
+
+	public long getMessagesSent(Constants.ActualMessageType messageType) {
+		return this.messagesSent.get(messageType.ordinal());
+	}
+
+	public long getMessagesReceived(Constants.ActualMessageType messageType) {
+		return this.messagesReceived.get(messageType.ordinal());
+	}
+
+	public ObjectName getObjectName() {
+		return this.objectName;
+	}
+
+	public void setObjectName(ObjectName objectName) {
+		this.objectName = objectName;
+	}
+
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	@Override
+	public String getPeerId() {
+		return this.remotePeerInfo.getPeerId();
+	}
+
+	@Override
+	public String getFileName() {
+		return this.fileName;
+	}
+
+	@Override
+	public long getBytesUploaded() {
+		return this.bytesUploaded.sum();
+	}
+
+	@Override
+	public long getBytesDownloaded() {
+		return this.bytesDownloaded.sum();
+	}
+
+	@Override
+	public long getPiecesUploaded() {
+		return this.getMessagesSent(Constants.ActualMessageType.PIECE);
+	}
+
+	@Override
+	public long getPiecesDownloaded() {
+		return this.getMessagesReceived(Constants.ActualMessageType.PIECE);
+	}
+
+	@Override
+	public double getDownloadRate() {
+		return this.remotePeerInfo.getDownloadMeter().getRate();
+	}
+
+	@Override
+	public int getOutstandingRequests() {
+		return this.remotePeerInfo.getOutstandingRequests().size();
+	}
+
+	@Override
+	public int getQueuedMessages() {
+		return this.remotePeerInfo.getQueuedMessages();
+	}
+
+	@Override
+	public boolean isChoked() {
+		return this.remotePeerInfo.isChoked();
+	}
+
+	@Override
+	public long getChokesSent() {
+		return this.getMessagesSent(Constants.ActualMessageType.CHOKE);
+	}
+
+	@Override
+	public long getUnchokesSent() {
+		return this.getMessagesSent(Constants.ActualMessageType.UNCHOKE);
+	}
+
+	@Override
+	public long getChokesReceived() {
+		return this.getMessagesReceived(Constants.ActualMessageType.CHOKE);
+	}
+
+	@Override
+	public long getUnchokesReceived() {
+		return this.getMessagesReceived(Constants.ActualMessageType.UNCHOKE);
+	}
+
+	@Override
+	public long getRequestLatencyCount() {
+		return this.requestLatency.getCount();
+	}
+
+	@Override
+	public double getRequestLatencyMeanMicros() {
+		return this.requestLatency.getMeanMicros();
+	}
+
+	@Override
+	public long getRequestLatency50thPercentileMicros() {
+		return this.requestLatency.getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getRequestLatency99thPercentileMicros() {
+		return this.requestLatency.getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getRequestLatencyMaxMicros() {
+		return this.requestLatency.getMaxMicros();
+	}
+
+}
@@ -0,0 +1,46 @@
+package p2p;
+
+/*
+ * JMX view of one connection, registered as p2p:type=Connection,share=<file>,peer=<peer ID>.
+ */
+public interface PeerMetricsMBean {
+
+	String getPeerId();
+
+	String getFileName();
+
+	long getBytesUploaded();
+
+	long getBytesDownloaded();
+
+	long getPiecesUploaded();
+
+	long getPiecesDownloaded();
+
+	double getDownloadRate();
+
+	int getOutstandingRequests();
+
+	int getQueuedMessages();
+
+	boolean isChoked();
+
+	long getChokesSent();
+
+	long getUnchokesSent();
+
+	long getChokesReceived();
+
+	long getUnchokesReceived();
+
+	long getRequestLatencyCount();
+
+	double getRequestLatencyMeanMicros();
+
+	long getRequestLatency50thPercentileMicros();
+
+	long getRequestLatency99thPercentileMicros();
+
+	long getRequestLatencyMaxMicros();
+
+}
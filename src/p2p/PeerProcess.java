@@ -0,0 +1,1063 @@
+package p2p;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+public class PeerProcess {
+
+	private static final boolean doPrint = false;
+	// Peers learned from PEER_EXCHANGE dialed per round, so a neighbor feeding bogus addresses cannot make this
+	// process dial all of them at once
+	private static final int MAX_LEARNED_PEER_DIALS = 4;
+	private static Logger LOGGER;
+	private static ScheduledExecutorService scheduler;
+	private static ThreadFactory threadFactory;
+
+	public static int numberOfPreferredNeighbors;
+	public static int unchokingInterval;
+	public static int optimisticUnchokingInterval;
+	public static String fileName;
+	public static long fileSize;
+	public static int pieceSize;
+	public static Constants.TransportMode transportMode;
+	public static Constants.ThreadMode threadMode;
+	public static int eventLoopThreads;
+	public static int maxOutstandingRequests;
+	public static Constants.PieceSelectionStrategy pieceSelectionStrategy;
+	public static int requestTimeout;
+	public static int endgamePieces;
+	public static boolean blockTransfers;
+	public static String pieceHashAlgorithm;
+	public static int verificationThreads;
+	public static int writeQueueSize;
+	public static Constants.FsyncPolicy fsyncPolicy;
+	public static long maxUploadRate;
+	public static long maxDownloadRate;
+	public static long maxPeerUploadRate;
+	public static long maxPeerDownloadRate;
+	public static boolean sendRedundantHave;
+	public static int metricsDumpInterval;
+	public static boolean asyncLogging;
+	public static int targetConnections;
+	public static int peerExchangeInterval;
+	public static int peerExpiryInterval;
+	public static int connectTimeout;
+	public static int handShakeTimeout;
+	public static int bitFieldTimeout;
+	public static int connectRetries;
+	public static int connectRetryDelay;
+	public static int maxFrameSize;
+	public static boolean superSeeding;
+
+	private static Map<String, String> commonConfigMap;
+	// "Share <FileName> <FileSize> <PieceSize> [<ManifestDigest>]" lines, one per share beyond the one FileName
+	// describes
+	private static List<String> shareConfigList;
+	private static NioTransport nioTransport;
+	private static ExecutorService verificationExecutorService;
+	// Runs outgoing connects and the blocking handshakes of accepted connections, so no peer waits for another
+	private static ExecutorService connectExecutorService;
+
+	private static Map<String, String> peerInfoMap;
+	private static PeerDirectory peerDirectory;
+	// Closed on shutdown to stop the acceptor, which only stops by itself under static membership
+	private static volatile ServerSocketChannel serverSocketChannel;
+	private static volatile boolean shuttingDown;
+	// Keyed by info-hash, in Common.cfg order
+	private static Map<String, Share> shares;
+
+	private static String peerProcessPeerId;
+	// Connections, as peer ID and share key, still expected from peers with higher IDs under static membership
+	private static final Set<String> expectedConnections = ConcurrentHashMap.newKeySet();
+
+	static {
+		loadPeerCommonConfig();
+		loadPeerInfoConfig();
+		threadFactory = ThreadFactories.newThreadFactory(threadMode, "Thread - PeerProcess ");
+		scheduler = Executors.newScheduledThreadPool(3, threadFactory);
+		connectExecutorService = Executors.newCachedThreadPool(threadFactory);
+	}
+
+	public static void loadPeerCommonConfig() {
+		commonConfigMap = new HashMap<>();
+		shareConfigList = new ArrayList<>();
+		try {
+			final BufferedReader bufferedReader = new BufferedReader(new FileReader("Common.cfg"));
+			String line;
+			while (( line = bufferedReader.readLine() ) != null) {
+				final String[] parts = line.trim().split("\\s+", 2);
+				if (parts.length == 2 && parts[0].equals("Share")) {
+					shareConfigList.add(parts[1]);
+				}
+				else if (parts.length == 2) {
+					commonConfigMap.put(parts[0], parts[1]);
+				}
+			}
+			bufferedReader.close();
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+		}
+
+		numberOfPreferredNeighbors = Integer.parseInt(commonConfigMap.get("NumberOfPreferredNeighbors"));
+		unchokingInterval = Integer.parseInt(commonConfigMap.get("UnchokingInterval"));
+		optimisticUnchokingInterval = Integer.parseInt(commonConfigMap.get("OptimisticUnchokingInterval"));
+		fileName = commonConfigMap.get("FileName");
+		fileSize = Long.parseLong(commonConfigMap.get("FileSize"));
+		pieceSize = Integer.parseInt(commonConfigMap.get("PieceSize"));
+		transportMode = Constants.TransportMode.valueOf(getCommonConfig("TransportMode", "BLOCKING").toUpperCase());
+		threadMode = Constants.ThreadMode.valueOf(getCommonConfig("ThreadMode", "PLATFORM").toUpperCase());
+		eventLoopThreads = Integer.parseInt(
+				getCommonConfig("EventLoopThreads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		maxOutstandingRequests = Integer.parseInt(getCommonConfig("MaxOutstandingRequests", "1"));
+		pieceSelectionStrategy = Constants.PieceSelectionStrategy
+				.valueOf(getCommonConfig("PieceSelectionStrategy", "RANDOM").toUpperCase());
+		requestTimeout = Integer.parseInt(getCommonConfig("RequestTimeout", "30"));
+		endgamePieces = Integer.parseInt(getCommonConfig("EndgamePieces", "0"));
+		blockTransfers = Boolean.parseBoolean(getCommonConfig("BlockTransfers", "false"));
+		pieceHashAlgorithm = getCommonConfig("PieceHashAlgorithm", null);
+		verificationThreads = Integer.parseInt(
+				getCommonConfig("VerificationThreads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		writeQueueSize = Integer.parseInt(getCommonConfig("WriteQueueSize", "0"));
+		fsyncPolicy = Constants.FsyncPolicy.valueOf(getCommonConfig("FsyncPolicy", "NONE").toUpperCase());
+		// Bytes per second; 0 is unlimited
+		maxUploadRate = Long.parseLong(getCommonConfig("MaxUploadRate", "0"));
+		maxDownloadRate = Long.parseLong(getCommonConfig("MaxDownloadRate", "0"));
+		maxPeerUploadRate = Long.parseLong(getCommonConfig("MaxPeerUploadRate", "0"));
+		maxPeerDownloadRate = Long.parseLong(getCommonConfig("MaxPeerDownloadRate", "0"));
+		sendRedundantHave = Boolean.parseBoolean(getCommonConfig("SendRedundantHave", "true"));
+		// Seconds between plain-text metrics dumps; 0 is off, JMX is always available
+		metricsDumpInterval = Integer.parseInt(getCommonConfig("MetricsDumpInterval", "0"));
+		asyncLogging = Boolean.parseBoolean(getCommonConfig("AsyncLogging", "true"));
+		// 0 keeps the swarm to the peers in PeerInfo.cfg, connected once at startup
+		targetConnections = Integer.parseInt(getCommonConfig("TargetConnections", "0"));
+		peerExchangeInterval = Integer.parseInt(getCommonConfig("PeerExchangeInterval", "10"));
+		// Seconds after which a peer that is not connected any more stops holding up the shutdown
+		peerExpiryInterval = Integer.parseInt(getCommonConfig("PeerExpiryInterval", "60"));
+		// Seconds allowed for each phase of setting up a connection, then the retries of a failed outgoing one
+		connectTimeout = Integer.parseInt(getCommonConfig("ConnectTimeout", "5"));
+		handShakeTimeout = Integer.parseInt(getCommonConfig("HandShakeTimeout", "10"));
+		bitFieldTimeout = Integer.parseInt(getCommonConfig("BitFieldTimeout", "10"));
+		connectRetries = Integer.parseInt(getCommonConfig("ConnectRetries", "3"));
+		connectRetryDelay = Integer.parseInt(getCommonConfig("ConnectRetryDelay", "1"));
+
+		shares = new LinkedHashMap<>();
+		// Hex digest of the manifest, which the seeder logs; every other peer needs it to trust a fetched manifest
+		addShare(fileName, fileSize, pieceSize, getCommonConfig("ManifestDigest", null));
+		for (final String shareConfig : shareConfigList) {
+			final String[] parts = shareConfig.split("\\s+");
+			addShare(parts[0], Long.parseLong(parts[1]), Integer.parseInt(parts[2]),
+					parts.length > 3 ? parts[3] : null);
+		}
+		superSeeding = Boolean.parseBoolean(getCommonConfig("SuperSeeding", "false"));
+		// 0 sizes the limit to the largest PIECE, BITFIELD or MANIFEST any configured share can produce
+		maxFrameSize = Integer.parseInt(getCommonConfig("MaxFrameSize", "0"));
+		if (maxFrameSize <= 0) {
+			maxFrameSize = Constants.MIN_FRAME_SIZE;
+			for (final Share share : shares.values()) {
+				// Type, piece index and offset ahead of the data
+				maxFrameSize = Math.max(maxFrameSize, 9 + share.getPieceSize());
+				maxFrameSize = Math.max(maxFrameSize, 1 + ( share.getNoOfPieces() + 7 ) / 8);
+				if (pieceHashAlgorithm != null) {
+					maxFrameSize = Math.max(maxFrameSize,
+							1 + Manifest.payloadLength(pieceHashAlgorithm, share.getNoOfPieces()));
+				}
+			}
+		}
+
+		setMaxUploadRate(maxUploadRate);
+		setMaxDownloadRate(maxDownloadRate);
+		setMaxPeerUploadRate(maxPeerUploadRate);
+		setMaxPeerDownloadRate(maxPeerDownloadRate);
+	}
+
+	private static void addShare(String fileName, long fileSize, int pieceSize, String manifestDigest) {
+		final Share share = new Share(fileName, fileSize, pieceSize,
+				manifestDigest == null ? null : HexFormat.of().parseHex(manifestDigest),
+				TimeUnit.SECONDS.toMillis(requestTimeout));
+		if (shares.putIfAbsent(share.getKey(), share) != null) {
+			throw new IllegalArgumentException("Share " + fileName + " is configured twice");
+		}
+	}
+
+	/*
+	 * Log lines in the project's fixed format keep it for the FileName share; only the extra shares are named.
+	 */
+	private static String shareSuffix(Share share) {
+		return share == shares.values().iterator().next() ? "" : " for " + share.getFileName();
+	}
+
+	private static String getCommonConfig(String key, String defaultValue) {
+		final String value = commonConfigMap.get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	public static void loadPeerInfoConfig() {
+		peerInfoMap = new HashMap<>();
+		try {
+			final BufferedReader bufferedReader = new BufferedReader(new FileReader("PeerInfo.cfg"));
+			String line;
+			while (( line = bufferedReader.readLine() ) != null) {
+				final String[] parts = line.split("\\s+", 2);
+				peerInfoMap.put(parts[0], parts[1]);
+			}
+			bufferedReader.close();
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/*
+	 * Seeds the peer directory with every PeerInfo.cfg entry, this peer's included, since its own entry is the first
+	 * one it hands out in a PEER_EXCHANGE.
+	 */
+	public static void loadPeerDirectory() {
+		peerDirectory = new PeerDirectory(peerProcessPeerId);
+		for (final Map.Entry<String, String> peerInfo : peerInfoMap.entrySet()) {
+			final String[] parts = peerInfo.getValue().split("\\s+");
+			peerDirectory.add(peerInfo.getKey(), parts[0], Integer.parseInt(parts[1]));
+		}
+	}
+
+	/*
+	 * The third PeerInfo.cfg column is either one flag for every share or a comma-separated flag per share, in
+	 * Common.cfg order.
+	 */
+	public static void loadShares() {
+		PeerManager.setPeerProcessPeerId(peerProcessPeerId);
+		if (pieceHashAlgorithm != null) {
+			verificationExecutorService = PieceVerifier.newExecutorService(verificationThreads);
+		}
+
+		final String[] hasFileFlags = peerInfoMap.get(peerProcessPeerId).split("\\s+")[2].split(",");
+		int shareIndex = 0;
+		for (final Share share : shares.values()) {
+			loadShare(share, hasFileFlags[Math.min(shareIndex++, hasFileFlags.length - 1)]);
+		}
+
+		// 0 keeps writing straight into the mapping on the receiving thread
+		if (writeQueueSize > 0 && !allSharesComplete()) {
+			final DiskWriter diskWriter = new DiskWriter(writeQueueSize, fsyncPolicy);
+			diskWriter.start();
+			PeerManager.setDiskWriter(diskWriter);
+		}
+	}
+
+	private static void loadShare(Share share, String hasFileOrNot) {
+		PieceStore pieceStore = null;
+		BitFieldStore bitFieldStore = null;
+		final BitSet bitSet = new BitSet();
+
+		final StringBuilder fileNameBuilder = new StringBuilder("peer_");
+		fileNameBuilder.append(peerProcessPeerId).append(File.separator).append(share.getFileName());
+		final String fileName = fileNameBuilder.toString();
+
+		if (hasFileOrNot.equals("1")) {
+			share.setHasFile(true);
+			final File file = new File(fileName);
+			if (file.exists() && !file.isDirectory()) {
+				try {
+					pieceStore = new PieceStore(fileName, share.getFileSize(), share.getPieceSize(), true);
+					bitSet.set(0, share.getNoOfPieces());
+				}
+				catch (final IOException e) {
+					e.printStackTrace();
+				}
+			}
+			else {
+				throw new RuntimeException("File Not Found, hasFileOrNot bit was 1");
+			}
+		}
+		else {
+			// Resume from whatever an earlier run left behind; the file is preallocated and filled in place
+			try {
+				bitFieldStore = new BitFieldStore(fileName + ".bitfield", share.getFileSize(), share.getPieceSize());
+				pieceStore = new PieceStore(fileName, share.getFileSize(), share.getPieceSize(), false);
+				if (pieceHashAlgorithm != null) {
+					bitSet.or(bitFieldStore.load());
+				}
+				else if (!bitFieldStore.load().isEmpty()) {
+					// Recorded pieces are only trusted once they match their hashes, and there are none to match
+					LOGGER.warning("Peer [peer_ID " + peerProcessPeerId + "] cannot resume " + share.getFileName()
+							+ " without a PieceHashAlgorithm and downloads it again");
+					bitFieldStore.clear();
+				}
+			}
+			catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		if (pieceHashAlgorithm != null) {
+			if (!share.hasFile() && share.getManifestDigest() == null) {
+				throw new RuntimeException("No manifest digest configured for " + share.getFileName()
+						+ ", so no manifest from a neighbor can be trusted");
+			}
+			// Kept beside the file, whether generated by the seeder or fetched by another peer
+			final PieceVerifier pieceVerifier = new PieceVerifier(pieceStore, pieceHashAlgorithm, share.getPieceSize(),
+					fileName + ".manifest", share.getManifestDigest(), verificationExecutorService);
+			if (share.hasFile()) {
+				try {
+					pieceVerifier.generateManifest();
+				}
+				catch (final IOException e) {
+					throw new RuntimeException("No usable manifest for " + share.getFileName(), e);
+				}
+				LOGGER.log(Level.INFO, "Peer [peer_ID {0}] published the manifest of {1} with digest {2}",
+						new Object[] { peerProcessPeerId, share.getFileName(),
+								HexFormat.of().formatHex(pieceVerifier.getManifest().digest()) });
+			}
+			else {
+				try {
+					pieceVerifier.loadManifest();
+				}
+				catch (final IOException e) {
+					// Most likely cut short by a crash while it was saved; the neighbors have it
+					LOGGER.log(Level.WARNING, "Peer [peer_ID {0}] fetches the manifest of {1} again: {2}",
+							new Object[] { peerProcessPeerId, share.getFileName(), e.getMessage() });
+					try {
+						pieceVerifier.discardManifest();
+					}
+					catch (final IOException discardException) {
+						throw new RuntimeException("No usable manifest for " + share.getFileName(), discardException);
+					}
+				}
+			}
+			share.setPieceVerifier(pieceVerifier);
+
+			if (!bitSet.isEmpty() && !pieceVerifier.hasManifest()) {
+				// Nothing to check them against yet; they count once the manifest arrives and they match it
+				LOGGER.info("Peer [peer_ID " + peerProcessPeerId + "] holds " + bitSet.cardinality()
+						+ " resumed pieces of " + share.getFileName() + " until it has the manifest");
+				share.setUnverifiedResumedPieces((BitSet) bitSet.clone());
+				bitSet.stream().forEach(share.getPiecesBeingVerified()::add);
+				bitSet.clear();
+			}
+			// Pieces recorded by an earlier run may not have reached the disk before it stopped
+			if (!bitSet.isEmpty()) {
+				final BitSet failedPieces = pieceVerifier.verifyAll(bitSet);
+				for (int pieceIndex = failedPieces.nextSetBit(0); pieceIndex >= 0; pieceIndex = failedPieces
+						.nextSetBit(pieceIndex + 1)) {
+					bitSet.clear(pieceIndex);
+					try {
+						bitFieldStore.clearPiece(pieceIndex);
+					}
+					catch (final IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+		if (bitFieldStore != null && !bitSet.isEmpty()) {
+			LOGGER.info("Peer [peer_ID " + peerProcessPeerId + "] resumed " + share.getFileName() + " with "
+					+ bitSet.cardinality() + " of " + share.getNoOfPieces() + " pieces");
+			if (bitSet.cardinality() == share.getNoOfPieces()) {
+				share.setHasFile(true);
+			}
+		}
+
+		share.setPieceStore(pieceStore);
+		share.setBitFieldStore(bitFieldStore);
+		share.getBitField().or(bitSet);
+		// Only a seed has pieces to ration; one that finished a download joins a swarm that already has copies
+		if (superSeeding && share.hasFile() && bitFieldStore == null) {
+			share.setSuperSeeder(new SuperSeeder(share.getNoOfPieces()));
+			LOGGER.info("Peer [peer_ID " + peerProcessPeerId + "] is super-seeding " + share.getFileName());
+		}
+	}
+
+	public void startTransport() throws IOException {
+		if (transportMode == Constants.TransportMode.NIO) {
+			nioTransport = new NioTransport(eventLoopThreads, peerProcessPeerId);
+			nioTransport.start();
+		}
+	}
+
+	public void createDirectory() {
+		new File("peer_" + peerProcessPeerId).mkdir();
+	}
+
+	public void peerClientConnect() {
+		for (final String peerId : peerInfoMap.keySet()) {
+			if (peerId.compareTo(peerProcessPeerId) < 0) {
+				// One connection per share, so each keeps its own choking state and request pipeline
+				for (final Share share : shares.values()) {
+					connect(peerId, share);
+				}
+			}
+			else if (peerId.compareTo(peerProcessPeerId) > 0) {
+				for (final Share share : shares.values()) {
+					expectedConnections.add(peerId + " " + share.getKey());
+				}
+			}
+		}
+	}
+
+	/*
+	 * Connects to peerId for share in the background, unless a connection is already being set up. One that fails
+	 * before the neighbor's BitField arrives is retried up to ConnectRetries times, after ConnectRetryDelay seconds
+	 * and twice as long after every further failure. Returns false if a connection was already being set up.
+	 */
+	private static boolean connect(String peerId, Share share) {
+		if (!share.getConnectingPeers().add(peerId)) {
+			return false;
+		}
+		connect(peerId, share, 0);
+		return true;
+	}
+
+	private static void connect(String peerId, Share share, int attempt) {
+		connectExecutorService.execute(() -> {
+			CompletableFuture<Void> established;
+			try {
+				established = openConnection(peerId, share).getEstablished();
+			}
+			catch (final IOException e) {
+				established = CompletableFuture.failedFuture(e);
+			}
+			established.whenComplete((ignored, failure) -> {
+				if (failure == null || shuttingDown) {
+					share.getConnectingPeers().remove(peerId);
+				}
+				else if (attempt < connectRetries) {
+					scheduler.schedule(() -> connect(peerId, share, attempt + 1), (long) connectRetryDelay << attempt,
+							TimeUnit.SECONDS);
+				}
+				else {
+					share.getConnectingPeers().remove(peerId);
+					LOGGER.log(Level.WARNING, "Peer [peer_ID {0}] could not connect to Peer [peer_ID {1}]: {2}",
+							new Object[] { peerProcessPeerId, peerId, failure });
+				}
+			});
+		});
+	}
+
+	private static PeerManager openConnection(String peerId, Share share) throws IOException {
+		final InetSocketAddress address = peerDirectory.getAddress(peerId);
+		final InetSocketAddress resolvedAddress = new InetSocketAddress(address.getHostString(), address.getPort());
+		if (resolvedAddress.isUnresolved()) {
+			throw new UnknownHostException(address.getHostString());
+		}
+		print("Trying to connect");
+		if (transportMode == Constants.TransportMode.NIO) {
+			return nioTransport.connect(resolvedAddress, peerId, share);
+		}
+		// Channel-backed sockets let PIECE uploads use FileChannel.transferTo
+		final SocketChannel socketChannel = SocketChannel.open();
+		try {
+			final Socket socket = socketChannel.socket();
+			socket.connect(resolvedAddress, (int) TimeUnit.SECONDS.toMillis(connectTimeout));
+			final PeerManager peerManager = new PeerManager(peerId, socket, true, share);
+			peerManager.start();
+			return peerManager;
+		}
+		catch (final IOException e) {
+			socketChannel.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Closes socket unless the returned future is cancelled within timeoutSeconds, which unblocks a blocking read.
+	 */
+	public static ScheduledFuture<?> closeOnTimeout(Socket socket, int timeoutSeconds) {
+		return scheduler.schedule(() -> {
+			try {
+				socket.close();
+			}
+			catch (final IOException e) {
+				// Already closed
+			}
+		}, timeoutSeconds, TimeUnit.SECONDS);
+	}
+
+	/*
+	 * Called once an accepted connection is established, so a peer that connects again after a failed attempt, or
+	 * twice, is only counted once.
+	 */
+	public static void onConnectionAccepted(String peerId, Share share) {
+		expectedConnections.remove(peerId + " " + share.getKey());
+	}
+
+	/*
+	 * Dynamic membership: every PeerExchangeInterval seconds, sends each neighbor that exchanges peers the known peer
+	 * list, and dials known peers with lower IDs until every share has TargetConnections connections. As at startup
+	 * only the higher ID dials, so two peers never connect to each other at the same time; peers with higher IDs are
+	 * expected to dial in. Only MAX_LEARNED_PEER_DIALS peers missing from PeerInfo.cfg are dialed per round.
+	 */
+	public void manageConnections() {
+		if (!isDynamicMembership()) {
+			return;
+		}
+		final Runnable manageConnectionsRunnable = () -> {
+			final byte[] peerExchangePayload = peerDirectory.toPayload();
+			int learnedPeerDials = 0;
+			for (final Share share : shares.values()) {
+				final Set<String> connectedPeerIds = new HashSet<>();
+				for (final PeerManager peerManager : share.getPeerManagers()) {
+					final RemotePeerInfo connectedPeer = peerManager.getConnectedPeer();
+					connectedPeerIds.add(connectedPeer.getPeerId());
+					peerDirectory.markSeen(connectedPeer.getPeerId());
+					if (connectedPeer.isPeerExchange()) {
+						try {
+							connectedPeer.sendActualMessage(Constants.ActualMessageType.PEER_EXCHANGE.ordinal(),
+									peerExchangePayload);
+						}
+						catch (final IOException e) {
+							// The connection is closing and will leave the share
+						}
+					}
+				}
+
+				int missingConnections = targetConnections - connectedPeerIds.size()
+						- share.getConnectingPeers().size();
+				final List<String> candidates = new ArrayList<>(peerDirectory.getPeerIds());
+				Collections.shuffle(candidates);
+				for (final String peerId : candidates) {
+					if (missingConnections <= 0 || shuttingDown) {
+						break;
+					}
+					// Two seeds have nothing to exchange
+					if (peerId.compareTo(peerProcessPeerId) >= 0 || connectedPeerIds.contains(peerId)
+							|| share.hasFile() && share.getCompletePeers().contains(peerId)) {
+						continue;
+					}
+					final boolean learnedPeer = !peerDirectory.isConfigured(peerId);
+					if (learnedPeer && learnedPeerDials == MAX_LEARNED_PEER_DIALS) {
+						continue;
+					}
+					if (connect(peerId, share)) {
+						missingConnections--;
+						if (learnedPeer) {
+							learnedPeerDials++;
+						}
+					}
+				}
+			}
+		};
+		scheduler.scheduleWithFixedDelay(manageConnectionsRunnable, peerExchangeInterval, peerExchangeInterval,
+				TimeUnit.SECONDS);
+	}
+
+	public void acceptClientConnections() {
+		final Runnable acceptClientConnectionsRunnable = new Runnable() {
+
+			@Override
+			public void run() {
+				final String peerPort = peerInfoMap.get(peerProcessPeerId).split("\\s+")[1];
+				if (transportMode == Constants.TransportMode.NIO) {
+					this.acceptNioConnections(Integer.parseInt(peerPort));
+					return;
+				}
+				try (final ServerSocket serverSocket = ServerSocketChannel.open().socket()) {
+					serverSocketChannel = serverSocket.getChannel();
+					serverSocket.bind(new InetSocketAddress(Integer.parseInt(peerPort)));
+					while (isAccepting()) {
+						print("Waiting to accept");
+						final Socket acceptSocket = serverSocket.getChannel().accept().socket();
+						print("Accepted");
+						if (acceptSocket != null) {
+							connectExecutorService.execute(() -> this.setUpAcceptedConnection(acceptSocket));
+						}
+					}
+				}
+				catch (final NumberFormatException e) {
+					e.printStackTrace();
+				}
+				catch (final IOException e) {
+					if (!shuttingDown) {
+						e.printStackTrace();
+					}
+				}
+			}
+
+			private void acceptNioConnections(int peerPort) {
+				try (final ServerSocketChannel acceptChannel = ServerSocketChannel.open()) {
+					serverSocketChannel = acceptChannel;
+					acceptChannel.bind(new InetSocketAddress(peerPort));
+					while (isAccepting()) {
+						print("Waiting to accept");
+						final SocketChannel socketChannel = acceptChannel.accept();
+						print("Accepted");
+						if (socketChannel != null) {
+							nioTransport.register(socketChannel, null, null, false);
+						}
+					}
+				}
+				catch (final IOException e) {
+					if (!shuttingDown) {
+						e.printStackTrace();
+					}
+				}
+			}
+
+			private void setUpAcceptedConnection(Socket acceptSocket) {
+				try {
+					final PeerManager peerManager = new PeerManager(null, acceptSocket, false, null);
+					peerManager.start();
+				}
+				catch (final IOException e) {
+					// A peer that fails its handshake may connect again
+					try {
+						acceptSocket.close();
+					}
+					catch (final IOException closeException) {
+						// Already closed
+					}
+				}
+			}
+
+			/*
+			 * Under static membership exactly the peers with higher IDs in PeerInfo.cfg connect, once per share;
+			 * under dynamic membership any peer may connect at any time until shutdown.
+			 */
+			private boolean isAccepting() {
+				return isDynamicMembership() ? !shuttingDown : !expectedConnections.isEmpty();
+			}
+		};
+
+		final Thread acceptClientConnectionsThread = threadFactory.newThread(acceptClientConnectionsRunnable);
+		acceptClientConnectionsThread
+				.setName("Thread - Accept Client Connections - peerID [" + peerProcessPeerId + "]: ");
+		acceptClientConnectionsThread.start();
+	}
+
+	public void determinePreferredNeighbours() {
+		final Runnable preferredNeighboursRunnable = new Runnable() {
+
+			@Override
+			public void run() {
+				for (final Share share : shares.values()) {
+					this.determinePreferredNeighbours(share);
+				}
+			}
+
+			private void determinePreferredNeighbours(Share share) {
+				final StringBuilder preferredNeighboursPeerId = new StringBuilder();
+				int k = numberOfPreferredNeighbors;
+
+				// Every neighbor is sampled each interval, so a rate covers exactly the time since the previous one
+				final long windowNanos = TimeUnit.SECONDS.toNanos(unchokingInterval);
+				final Map<RemotePeerInfo, Double> downloadRates = new HashMap<>();
+				for (final PeerManager peerManager : share.getPeerManagers()) {
+					final RemotePeerInfo remotePeerInfo = peerManager.getConnectedPeer();
+					downloadRates.put(remotePeerInfo, remotePeerInfo.getDownloadMeter().sample(windowNanos));
+				}
+
+				// Ranked on a snapshot, so neither rates nor interest changing underneath can reorder it
+				final List<RemotePeerInfo> candidates = new ArrayList<>(share.getInterestedNeighbors());
+				// Random among equals; a seeder has nothing to reward and unchokes at random
+				Collections.shuffle(candidates);
+				if (!share.hasFile()) {
+					final Comparator<RemotePeerInfo> byDownloadRate = Comparator
+							.comparingDouble(peer -> downloadRates.getOrDefault(peer, 0.0));
+					candidates.sort(byDownloadRate.reversed());
+				}
+
+				for (final RemotePeerInfo remotePeerInfo : candidates) {
+					if (k > 0) {
+						share.getPreferredNeighbors().add(remotePeerInfo);
+						k--;
+						if (remotePeerInfo.isChoked()) {
+							remotePeerInfo.setChoked(false);
+							if (!remotePeerInfo.isOptimisticallyUnchoked()) {
+								try {
+									remotePeerInfo.sendActualMessage(Constants.ActualMessageType.UNCHOKE.ordinal(),
+											null);
+								}
+								catch (final IOException e) {
+									e.printStackTrace();
+								}
+							}
+						}
+						preferredNeighboursPeerId.append(remotePeerInfo.getPeerId()).append(",");
+					}
+					else {
+						share.getPreferredNeighbors().remove(remotePeerInfo);
+						if (!remotePeerInfo.isChoked()) {
+							remotePeerInfo.setChoked(true);
+							// We won't send choke message if the peer is optimistically unchoked
+							if (!remotePeerInfo.isOptimisticallyUnchoked()) {
+								try {
+									remotePeerInfo.sendActualMessage(Constants.ActualMessageType.CHOKE.ordinal(),
+											null);
+								}
+								catch (final IOException e) {
+									e.printStackTrace();
+								}
+							}
+						}
+					}
+				}
+
+				if (!preferredNeighboursPeerId.toString().isEmpty()) {
+					preferredNeighboursPeerId.deleteCharAt(preferredNeighboursPeerId.length() - 1);
+					LOGGER.info("Peer [peer_ID " + peerProcessPeerId + "] has the preferred neighbors ["
+							+ preferredNeighboursPeerId.toString() + "]" + shareSuffix(share));
+				}
+			}
+		};
+		scheduler.scheduleAtFixedRate(preferredNeighboursRunnable, unchokingInterval, unchokingInterval,
+				TimeUnit.SECONDS);
+	}
+
+	public void determineOptimisticallyUnchokedNeighbour() {
+		final Runnable optimisticallyUnchokedNeighbourRunnable = new Runnable() {
+
+			@Override
+			public void run() {
+				for (final Share share : shares.values()) {
+					this.determineOptimisticallyUnchokedNeighbour(share);
+				}
+			}
+
+			private void determineOptimisticallyUnchokedNeighbour(Share share) {
+				if (share.getPreferredNeighbors().size() <= numberOfPreferredNeighbors) {
+					return;
+				}
+				final List<RemotePeerInfo> chokeList = share.getInterestedNeighbors().stream()
+						.filter(peer -> !share.getPreferredNeighbors().contains(peer))
+						.collect(Collectors.toList());
+				final RemotePeerInfo previous = share.getOptimisticallyUnchokedNeighbor();
+				try {
+					final RemotePeerInfo remotePeerInfo = chokeList.get(new Random().nextInt(chokeList.size()));
+					if (remotePeerInfo != previous) {
+						if (previous != null) {
+							previous.setOptimisticallyUnchoked(false);
+							if (!share.getPreferredNeighbors().contains(previous)) {
+								previous.sendActualMessage(Constants.ActualMessageType.CHOKE.ordinal(), null);
+							}
+						}
+						share.setOptimisticallyUnchokedNeighbor(remotePeerInfo);
+						remotePeerInfo.setOptimisticallyUnchoked(true);
+						remotePeerInfo.sendActualMessage(Constants.ActualMessageType.UNCHOKE.ordinal(), null);
+						LOGGER.info(
+								"Peer [peer_ID " + peerProcessPeerId + "] has the optimistically unchoked neighbor ["
+										+ remotePeerInfo.getPeerId() + "]" + shareSuffix(share));
+					}
+				}
+				catch (final IllegalArgumentException e) {
+					// This implies that choke list size is 0.
+					if (previous != null) {
+						previous.setOptimisticallyUnchoked(false);
+					}
+					share.setOptimisticallyUnchokedNeighbor(null);
+				}
+				catch (final IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+
+		scheduler.scheduleAtFixedRate(optimisticallyUnchokedNeighbourRunnable, optimisticUnchokingInterval,
+				optimisticUnchokingInterval, TimeUnit.SECONDS);
+	}
+
+	/*
+	 * Samples the metrics rates, and rewrites metrics_peer_<peer ID>.txt with Metrics.dump() every
+	 * MetricsDumpInterval seconds.
+	 */
+	public void determineMetricsDump() {
+		scheduler.scheduleAtFixedRate(Metrics.getDefault()::sample, Metrics.SAMPLE_INTERVAL_SECONDS,
+				Metrics.SAMPLE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+		if (metricsDumpInterval <= 0) {
+			return;
+		}
+		scheduler.scheduleAtFixedRate(PeerProcess::dumpMetrics, metricsDumpInterval, metricsDumpInterval,
+				TimeUnit.SECONDS);
+	}
+
+	private static void dumpMetrics() {
+		if (metricsDumpInterval <= 0) {
+			return;
+		}
+		try {
+			Files.writeString(Path.of(System.getProperty("user.dir"), "metrics_peer_" + peerProcessPeerId + ".txt"),
+					Metrics.getDefault().dump());
+		}
+		catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void determineShutDownProcess() {
+		final Runnable shutDownProcessRunnable = new Runnable() {
+
+			@Override
+			public void run() {
+				if (allSharesComplete() && (isDynamicMembership() || expectedConnections.isEmpty())) {
+					boolean shutDown = true;
+					for (final Share share : shares.values()) {
+						shutDown &= this.isSwarmComplete(share) && share.getConnectingPeers().isEmpty();
+						// Peers not connected right now may still be downloading from someone else, unless they have
+						// not been seen for a while; peers only heard of through PEER_EXCHANGE may not exist at all
+						if (isDynamicMembership()) {
+							shutDown &= share.getCompletePeers().containsAll(
+									peerDirectory.getLivePeerIds(TimeUnit.SECONDS.toNanos(peerExpiryInterval)));
+						}
+					}
+
+					if (shutDown) {
+						shuttingDown = true;
+						dumpMetrics();
+						for (final Share share : shares.values()) {
+							final Iterator<PeerManager> iterator = share.getPeerManagers().iterator();
+							while (iterator.hasNext()) {
+								final PeerManager peerManager = iterator.next();
+
+								// Close Socket
+								try {
+									peerManager.setTerminated(true);
+									final RemotePeerInfo connectedPeer = peerManager.getConnectedPeer();
+									connectedPeer.sendActualMessage(Constants.ActualMessageType.TERMINATE.ordinal(),
+											null);
+									connectedPeer.sendActualMessage(Constants.ActualMessageType.TERMINATE.ordinal(),
+											null);
+									connectedPeer.getSocket().close();
+								}
+								catch (final IOException e) {
+									//	e.printStackTrace();
+								}
+
+								// Terminate threads
+								peerManager.interrupt();
+							}
+						}
+
+						if (serverSocketChannel != null) {
+							try {
+								serverSocketChannel.close();
+							}
+							catch (final IOException e) {
+								// Already closed
+							}
+						}
+						connectExecutorService.shutdownNow();
+						if (nioTransport != null) {
+							nioTransport.shutdown();
+						}
+						if (verificationExecutorService != null) {
+							verificationExecutorService.shutdownNow();
+						}
+						if (PeerManager.getDiskWriter() != null) {
+							PeerManager.getDiskWriter().shutdown();
+						}
+
+						// Shutdown Scheduler
+						scheduler.shutdown();
+						if (!scheduler.isShutdown()) {
+							scheduler.shutdownNow();
+						}
+						try {
+							scheduler.awaitTermination(5, TimeUnit.SECONDS);
+						}
+						catch (final InterruptedException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}
+
+			private boolean isSwarmComplete(Share share) {
+				boolean shutDown = true;
+				final Iterator<PeerManager> iterator = share.getPeerManagers().iterator();
+				while (iterator.hasNext()) {
+					final PeerManager peerManager = iterator.next();
+					// Its BitField has not arrived yet; the bitfield timeout closes it if it never does
+					if (peerManager.getConnectedPeer().getBitField() == null) {
+						continue;
+					}
+					if (!peerManager.getConnectedPeer().getBitField().isComplete()) {
+						if (peerManager.isTerminated()) {
+							shutDown = true;
+							break;
+						}
+						shutDown = false;
+						break;
+					}
+					else {
+						if (peerManager.isTerminated()) {
+							shutDown = true;
+							break;
+						}
+					}
+				}
+				return shutDown;
+			}
+		};
+
+		scheduler.scheduleAtFixedRate(shutDownProcessRunnable, 5, 5, TimeUnit.SECONDS);
+	}
+
+	private static void print(String string) {
+		if (doPrint) {
+			System.out.println(string);
+		}
+	}
+
+	private static boolean allSharesComplete() {
+		for (final Share share : shares.values()) {
+			if (!share.hasFile()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Bandwidth limits in bytes per second, 0 for none. They may be changed while running; the per-peer ones apply
+	 * to open connections as well as later ones.
+	 */
+	public static void setMaxUploadRate(long bytesPerSecond) {
+		maxUploadRate = bytesPerSecond;
+		RemotePeerInfo.getGlobalUploadBucket().setBytesPerSecond(bytesPerSecond);
+	}
+
+	public static void setMaxDownloadRate(long bytesPerSecond) {
+		maxDownloadRate = bytesPerSecond;
+		RemotePeerInfo.getGlobalDownloadBucket().setBytesPerSecond(bytesPerSecond);
+	}
+
+	public static void setMaxPeerUploadRate(long bytesPerSecond) {
+		maxPeerUploadRate = bytesPerSecond;
+		RemotePeerInfo.setPeerUploadRate(bytesPerSecond);
+		for (final Share share : shares.values()) {
+			for (final PeerManager peerManager : share.getPeerManagers()) {
+				peerManager.getConnectedPeer().getUploadBucket().setBytesPerSecond(bytesPerSecond);
+			}
+		}
+	}
+
+	public static void setMaxPeerDownloadRate(long bytesPerSecond) {
+		maxPeerDownloadRate = bytesPerSecond;
+		RemotePeerInfo.setPeerDownloadRate(bytesPerSecond);
+		for (final Share share : shares.values()) {
+			for (final PeerManager peerManager : share.getPeerManagers()) {
+				peerManager.getConnectedPeer().getDownloadBucket().setBytesPerSecond(bytesPerSecond);
+			}
+		}
+	}
+
+	public static Share getShare(byte[] infoHash) {
+		return shares.get(Share.toKey(infoHash));
+	}
+
+	public static PeerDirectory getPeerDirectory() {
+		return peerDirectory;
+	}
+
+	/*
+	 * With TargetConnections set, peers keep accepting connections and find each other through PEER_EXCHANGE
+	 * instead of connecting once to exactly the peers in PeerInfo.cfg.
+	 */
+	public static boolean isDynamicMembership() {
+		return targetConnections > 0;
+	}
+
+	public static int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+
+	public static int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public static int getHandShakeTimeout() {
+		return handShakeTimeout;
+	}
+
+	public static int getBitFieldTimeout() {
+		return bitFieldTimeout;
+	}
+
+	public static boolean isBlockTransfers() {
+		return blockTransfers;
+	}
+
+	public static String getPieceHashAlgorithm() {
+		return pieceHashAlgorithm;
+	}
+
+	public static int getEndgamePieces() {
+		return endgamePieces;
+	}
+
+	public static Constants.PieceSelectionStrategy getPieceSelectionStrategy() {
+		return pieceSelectionStrategy;
+	}
+
+	public static int getMaxOutstandingRequests() {
+		return maxOutstandingRequests;
+	}
+
+	public static boolean isSendRedundantHave() {
+		return sendRedundantHave;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+
+		final PeerProcess peerProcess = new PeerProcess();
+		peerProcessPeerId = args[0];
+
+		CustomLogFormatter.setupLogger(peerProcessPeerId, asyncLogging);
+		LOGGER = CustomLogFormatter.getLogger();
+		if (threadMode == Constants.ThreadMode.VIRTUAL && !ThreadFactories.isVirtualThreadSupported()) {
+			LOGGER.warning("ThreadMode VIRTUAL needs Java 21 or later; using platform threads");
+		}
+		// Not in the static initializer: PeerManager must not load before the logger is set up
+		PeerManager.setConnectionThreadFactory(ThreadFactories.newThreadFactory(threadMode, "Thread - Connection "));
+		Metrics.getDefault().registerProcess(peerProcessPeerId);
+		peerProcess.createDirectory();
+		loadShares();
+		loadPeerDirectory();
+
+		peerProcess.startTransport();
+		peerProcess.peerClientConnect();
+		peerProcess.acceptClientConnections();
+		peerProcess.manageConnections();
+
+		peerProcess.determinePreferredNeighbours();
+		peerProcess.determineOptimisticallyUnchokedNeighbour();
+		peerProcess.determineMetricsDump();
+		peerProcess.determineShutDownProcess();
+
+		// Virtual threads never keep the JVM alive, so main waits for the shutdown task to stop the scheduler
+		scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+}
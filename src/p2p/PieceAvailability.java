@@ -0,0 +1,141 @@
+package p2p;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/*
+ * Counts how many connected neighbors hold each piece. Pieces are kept sorted by count in a single array, with
+ * bucketStarts[c] marking where the pieces held by c (or more) neighbors begin, so an update is an O(1) swap across
+ * a bucket boundary and the rarest pieces are always at the front.
+ */
+public class PieceAvailability {
+
+	private final int noOfPieces;
+	private final int[] counts;
+	private final int[] pieces;
+	private final int[] positions;
+	private int[] bucketStarts;
+	private final Random random;
+
+	public PieceAvailability(int noOfPieces) {
+		this.noOfPieces = noOfPieces;
+		this.counts = new int[noOfPieces];
+		this.pieces = new int[noOfPieces];
+		this.positions = new int[noOfPieces];
+		for (int pieceIndex = 0; pieceIndex < noOfPieces; pieceIndex++) {
+			this.pieces[pieceIndex] = pieceIndex;
+			this.positions[pieceIndex] = pieceIndex;
+		}
+		this.bucketStarts = new int[] { 0, noOfPieces };
+		this.random = new Random();
+	}
+
+	public synchronized void increment(int pieceIndex) {
+		final int count = this.counts[pieceIndex];
+		this.ensureBuckets(count + 2);
+		final int last = this.bucketStarts[count + 1] - 1;
+		this.swap(this.positions[pieceIndex], last);
+		this.bucketStarts[count + 1]--;
+		this.counts[pieceIndex]++;
+	}
+
+	public synchronized void decrement(int pieceIndex) {
+		final int count = this.counts[pieceIndex];
+		if (count == 0) {
+			return;
+		}
+		final int first = this.bucketStarts[count];
+		this.swap(this.positions[pieceIndex], first);
+		this.bucketStarts[count]++;
+		this.counts[pieceIndex]--;
+	}
+
+	public void addBitField(CompactBitField bitField) {
+		for (int pieceIndex = bitField.nextSetBit(0); pieceIndex >= 0
+				&& pieceIndex < this.noOfPieces; pieceIndex = bitField.nextSetBit(pieceIndex + 1)) {
+			this.increment(pieceIndex);
+		}
+	}
+
+	public void removeBitField(CompactBitField bitField) {
+		for (int pieceIndex = bitField.nextSetBit(0); pieceIndex >= 0
+				&& pieceIndex < this.noOfPieces; pieceIndex = bitField.nextSetBit(pieceIndex + 1)) {
+			this.decrement(pieceIndex);
+		}
+	}
+
+	public synchronized int getCount(int pieceIndex) {
+		return this.counts[pieceIndex];
+	}
+
+	/*
+	 * Returns the candidate held by the fewest neighbors, breaking ties at random, or -1 if there is none.
+	 */
+	public synchronized int selectRarest(BitSet candidates) {
+		final int cardinality = candidates.cardinality();
+		if (cardinality == 0) {
+			return -1;
+		}
+		if (cardinality < this.noOfPieces / 8) {
+			return this.selectRarestAmongCandidates(candidates);
+		}
+
+		// From count 0: a piece may be requested before its HAVE has been counted
+		for (int count = 0; count < this.bucketStarts.length; count++) {
+			final int start = this.bucketStarts[count];
+			final int end = count + 1 < this.bucketStarts.length ? this.bucketStarts[count + 1] : this.noOfPieces;
+			final int size = end - start;
+			if (size == 0) {
+				continue;
+			}
+			final int offset = this.random.nextInt(size);
+			for (int i = 0; i < size; i++) {
+				final int pieceIndex = this.pieces[start + ( offset + i ) % size];
+				if (candidates.get(pieceIndex)) {
+					return pieceIndex;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private int selectRarestAmongCandidates(BitSet candidates) {
+		int rarestPieceIndex = -1;
+		int rarestCount = Integer.MAX_VALUE;
+		int ties = 0;
+		for (int pieceIndex = candidates.nextSetBit(0); pieceIndex >= 0
+				&& pieceIndex < this.noOfPieces; pieceIndex = candidates.nextSetBit(pieceIndex + 1)) {
+			final int count = this.counts[pieceIndex];
+			if (count < rarestCount) {
+				rarestPieceIndex = pieceIndex;
+				rarestCount = count;
+				ties = 1;
+			}
+			else if (count == rarestCount && this.random.nextInt(++ties) == 0) {
+				rarestPieceIndex = pieceIndex;
+			}
+		}
+		return rarestPieceIndex;
+	}
+
+	private void ensureBuckets(int length) {
+		if (this.bucketStarts.length < length) {
+			final int[] largerBucketStarts = new int[Math.max(length, this.bucketStarts.length * 2)];
+			System.arraycopy(this.bucketStarts, 0, largerBucketStarts, 0, this.bucketStarts.length);
+			for (int count = this.bucketStarts.length; count < largerBucketStarts.length; count++) {
+				largerBucketStarts[count] = this.noOfPieces;
+			}
+			this.bucketStarts = largerBucketStarts;
+		}
+	}
+
+	private void swap(int i, int j) {
+		final int pieceI = this.pieces[i];
+		final int pieceJ = this.pieces[j];
+		this.pieces[i] = pieceJ;
+		this.pieces[j] = pieceI;
+		this.positions[pieceJ] = i;
+		this.positions[pieceI] = j;
+	}
+
+}
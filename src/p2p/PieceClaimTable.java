@@ -0,0 +1,90 @@
+package p2p;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Lock-free record of pieces that have been requested from some neighbor but not yet received, shared by all
+ * connections so the same piece is not downloaded twice. A claim older than the timeout is considered abandoned and
+ * may be taken over by another connection.
+ *
+ * Each claim remembers its owner, so a connection that is choked or closes gives back only the claims it still holds:
+ * not one another connection took over after it went stale, nor a piece it was only requesting as an endgame
+ * duplicate.
+ */
+public class PieceClaimTable {
+
+	private final int noOfPieces;
+	// null while a piece is unclaimed; a claim is replaced as a whole, so owner and time always match
+	private final AtomicReferenceArray<Claim> claims;
+	private final long claimTimeoutMillis;
+
+	public PieceClaimTable(int noOfPieces, long claimTimeoutMillis) {
+		this.noOfPieces = noOfPieces;
+		this.claims = new AtomicReferenceArray<>(noOfPieces);
+		this.claimTimeoutMillis = claimTimeoutMillis;
+	}
+
+	public boolean tryClaim(int pieceIndex, Object owner) {
+		final long now = System.currentTimeMillis();
+		final Claim claim = this.claims.get(pieceIndex);
+		if (claim != null && now - claim.time < this.claimTimeoutMillis) {
+			return false;
+		}
+		return this.claims.compareAndSet(pieceIndex, claim, new Claim(owner, now));
+	}
+
+	/*
+	 * Gives up the claim whoever holds it, once the piece has been completed or discarded.
+	 */
+	public void release(int pieceIndex) {
+		this.claims.set(pieceIndex, null);
+	}
+
+	/*
+	 * Gives up the claim only if owner still holds it. Returns true if it did.
+	 */
+	public boolean release(int pieceIndex, Object owner) {
+		Claim claim;
+		do {
+			claim = this.claims.get(pieceIndex);
+			if (claim == null || claim.owner != owner) {
+				return false;
+			}
+		}
+		while (!this.claims.compareAndSet(pieceIndex, claim, null));
+		return true;
+	}
+
+	public boolean isClaimed(int pieceIndex) {
+		final Claim claim = this.claims.get(pieceIndex);
+		return claim != null && System.currentTimeMillis() - claim.time < this.claimTimeoutMillis;
+	}
+
+	/*
+	 * Clears every piece in candidates that is currently claimed by a live request.
+	 */
+	public void clearClaimed(BitSet candidates) {
+		final long now = System.currentTimeMillis();
+		for (int pieceIndex = candidates.nextSetBit(0); pieceIndex >= 0
+				&& pieceIndex < this.noOfPieces; pieceIndex = candidates.nextSetBit(pieceIndex + 1)) {
+			final Claim claim = this.claims.get(pieceIndex);
+			if (claim != null && now - claim.time < this.claimTimeoutMillis) {
+				candidates.clear(pieceIndex);
+			}
+		}
+	}
+
+	private static class Claim {
+
+		private final Object owner;
+		private final long time;
+
+		Claim(Object owner, long time) {
+			this.owner = owner;
+			this.time = time;
+		}
+
+	}
+
+}
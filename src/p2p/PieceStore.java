@@ -0,0 +1,195 @@
+package p2p;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+public class PieceStore {
+
+	/*
+	 * Upper bound for a single mapping. The actual window is rounded down to a whole number of pieces so that a
+	 * piece never straddles two mappings.
+	 */
+	private static final long MAX_WINDOW_SIZE = 1L << 30;
+
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel fileChannel;
+	private final FileChannel.MapMode mapMode;
+	private final long fileSize;
+	private final int pieceSize;
+	private final int noOfPieces;
+	private final int piecesPerWindow;
+	private final MappedByteBuffer[] windows;
+
+	public PieceStore(String fileName, long fileSize, int pieceSize, boolean readOnly) throws IOException {
+		this.randomAccessFile = new RandomAccessFile(fileName, readOnly ? "r" : "rw");
+		this.fileChannel = this.randomAccessFile.getChannel();
+		this.mapMode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+		this.fileSize = fileSize;
+		this.pieceSize = pieceSize;
+		this.noOfPieces = (int) ( ( fileSize + pieceSize - 1 ) / pieceSize );
+		this.piecesPerWindow = (int) Math.max(1, MAX_WINDOW_SIZE / pieceSize);
+		this.windows = new MappedByteBuffer[( this.noOfPieces + this.piecesPerWindow - 1 ) / this.piecesPerWindow];
+
+		if (!readOnly && this.fileChannel.size() != fileSize) {
+			this.randomAccessFile.setLength(fileSize);
+		}
+		if (this.fileChannel.size() < fileSize) {
+			throw new IOException("File " + fileName + " is shorter than the configured FileSize " + fileSize);
+		}
+	}
+
+	public long getPieceOffset(int pieceIndex) {
+		return (long) pieceIndex * this.pieceSize;
+	}
+
+	public int getPieceLength(int pieceIndex) {
+		if (pieceIndex < 0 || pieceIndex >= this.noOfPieces) {
+			throw new IndexOutOfBoundsException("Piece index " + pieceIndex + " out of range [0, " + this.noOfPieces
+					+ ")");
+		}
+		return (int) Math.min(this.pieceSize, this.fileSize - this.getPieceOffset(pieceIndex));
+	}
+
+	public void readPiece(int pieceIndex, ByteBuffer destination) throws IOException {
+		final ByteBuffer piece = this.slicePiece(pieceIndex);
+		destination.put(piece);
+	}
+
+	public void writePiece(int pieceIndex, byte[] source, int offset, int length) throws IOException {
+		this.writeBlock(pieceIndex, 0, source, offset, length);
+	}
+
+	public void writeBlock(int pieceIndex, int offsetInPiece, byte[] source, int offset, int length)
+			throws IOException {
+		this.checkBlock(pieceIndex, offsetInPiece, length);
+		// Absolute puts leave the shared window's position alone, so no per-call duplicate is needed
+		this.getWindow(pieceIndex / this.piecesPerWindow).put(this.getWindowPosition(pieceIndex) + offsetInPiece,
+				source, offset, length);
+	}
+
+	public void writeBlock(int pieceIndex, int offsetInPiece, ByteBuffer source, int offset, int length)
+			throws IOException {
+		this.checkBlock(pieceIndex, offsetInPiece, length);
+		this.getWindow(pieceIndex / this.piecesPerWindow).put(this.getWindowPosition(pieceIndex) + offsetInPiece,
+				source, offset, length);
+	}
+
+	/*
+	 * Gathering write of consecutive buffers starting at fileOffset, for the DiskWriter. That thread is the only one
+	 * that moves the channel position; every other access is positional or goes through the mapping, which shares
+	 * the page cache with the channel.
+	 */
+	public void write(long fileOffset, ByteBuffer[] sources, int offset, int length) throws IOException {
+		this.fileChannel.position(fileOffset);
+		final ByteBuffer lastSource = sources[offset + length - 1];
+		while (lastSource.hasRemaining()) {
+			this.fileChannel.write(sources, offset, length);
+		}
+	}
+
+	/*
+	 * Read-only view of a piece straight in the mapping, so it can be hashed without copying it out.
+	 */
+	public ByteBuffer getPiece(int pieceIndex) throws IOException {
+		return this.slicePiece(pieceIndex).asReadOnlyBuffer();
+	}
+
+	public void writePiece(int pieceIndex, ByteBuffer source) throws IOException {
+		final ByteBuffer piece = this.slicePiece(pieceIndex);
+		piece.put(source);
+	}
+
+	/*
+	 * Streams part of a piece straight from the page cache to target (sendfile where the platform supports it).
+	 * Returns the number of bytes actually transferred, which may be less than requested.
+	 */
+	public long transferPiece(int pieceIndex, long offsetInPiece, long count, WritableByteChannel target)
+			throws IOException {
+		return this.fileChannel.transferTo(this.getPieceOffset(pieceIndex) + offsetInPiece, count, target);
+	}
+
+	public void force() throws IOException {
+		synchronized (this.windows) {
+			for (final MappedByteBuffer window : this.windows) {
+				if (window != null) {
+					window.force();
+				}
+			}
+		}
+		if (this.mapMode != FileChannel.MapMode.READ_ONLY) {
+			this.fileChannel.force(false);
+		}
+	}
+
+	/*
+	 * Forces one piece to disk, however it was written: msync of a shared mapping flushes every dirty page in the
+	 * range, positional writes included.
+	 */
+	public void force(int pieceIndex) throws IOException {
+		if (this.mapMode == FileChannel.MapMode.READ_ONLY) {
+			return;
+		}
+		this.getWindow(pieceIndex / this.piecesPerWindow).force(this.getWindowPosition(pieceIndex),
+				this.getPieceLength(pieceIndex));
+	}
+
+	public void close() throws IOException {
+		this.force();
+		this.fileChannel.close();
+		this.randomAccessFile.close();
+	}
+
+	public FileChannel getFileChannel() {
+		return this.fileChannel;
+	}
+
+	public long getFileSize() {
+		return this.fileSize;
+	}
+
+	public int getNoOfPieces() {
+		return this.noOfPieces;
+	}
+
+	private void checkBlock(int pieceIndex, int offsetInPiece, int length) {
+		if (offsetInPiece < 0 || length < 0 || offsetInPiece + length > this.getPieceLength(pieceIndex)) {
+			throw new IndexOutOfBoundsException("Block [" + offsetInPiece + ", " + ( offsetInPiece + length )
+					+ ") outside piece " + pieceIndex);
+		}
+	}
+
+	private int getWindowPosition(int pieceIndex) {
+		return ( pieceIndex % this.piecesPerWindow ) * this.pieceSize;
+	}
+
+	private ByteBuffer slicePiece(int pieceIndex) throws IOException {
+		final int pieceLength = this.getPieceLength(pieceIndex);
+		final MappedByteBuffer window = this.getWindow(pieceIndex / this.piecesPerWindow);
+		final int position = this.getWindowPosition(pieceIndex);
+
+		// Work on a private view so concurrent readers and writers never share position/limit.
+		final ByteBuffer piece = window.duplicate();
+		piece.limit(position + pieceLength);
+		piece.position(position);
+		return piece;
+	}
+
+	private MappedByteBuffer getWindow(int windowIndex) throws IOException {
+		synchronized (this.windows) {
+			MappedByteBuffer window = this.windows[windowIndex];
+			if (window == null) {
+				final long windowOffset = (long) windowIndex * this.piecesPerWindow * this.pieceSize;
+				final long windowLength = Math.min((long) this.piecesPerWindow * this.pieceSize,
+						this.fileSize - windowOffset);
+				window = this.fileChannel.map(this.mapMode, windowOffset, windowLength);
+				this.windows[windowIndex] = window;
+			}
+			return window;
+		}
+	}
+
+}
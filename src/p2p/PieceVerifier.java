@@ -0,0 +1,169 @@
+package p2p;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ProtocolException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Checks downloaded pieces against the Manifest on a pool shared by every share of the process, so hashing never
+ * holds up a receive loop or an event loop.
+ *
+ * The seeder hashes its file at startup. Any other peer loads the manifest it saved on an earlier run, or else
+ * fetches it from its neighbors with MANIFEST_REQUEST and saves it next to the download. Until it has one, pieces
+ * wait for it: a missing manifest never makes a piece count as corrupt.
+ *
+ * A neighbor could send a manifest that matches its own corrupt data, so one is only taken if it has the digest
+ * Common.cfg gives for the share. The saved copy is checked the same way when it is loaded again.
+ */
+public class PieceVerifier {
+
+	private final PieceStore pieceStore;
+	private final String algorithm;
+	private final int pieceSize;
+	private final String manifestFileName;
+	private final byte[] manifestDigest;
+	private final ExecutorService executorService;
+	private final ThreadLocal<MessageDigest> messageDigests;
+	private final CompletableFuture<Manifest> manifest;
+
+	/*
+	 * manifestDigest may only be null on the seeder, which trusts its own file.
+	 */
+	public PieceVerifier(PieceStore pieceStore, String algorithm, int pieceSize, String manifestFileName,
+			byte[] manifestDigest, ExecutorService executorService) {
+		this.pieceStore = pieceStore;
+		this.algorithm = algorithm;
+		this.pieceSize = pieceSize;
+		this.manifestFileName = manifestFileName;
+		this.manifestDigest = manifestDigest;
+		this.executorService = executorService;
+		this.messageDigests = Manifest.newMessageDigests(algorithm);
+		this.manifest = new CompletableFuture<>();
+	}
+
+	public static ExecutorService newExecutorService(int threads) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, runnable -> {
+			final Thread thread = new Thread(runnable, "Thread - Piece Verifier " + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/*
+	 * Seeder side: hashes the complete file and publishes the manifest. It is always regenerated, since a manifest
+	 * left over from an earlier run may describe different content of the same size. Throws if the file is not the
+	 * content Common.cfg pins, which no other peer would accept.
+	 */
+	public void generateManifest() throws IOException {
+		final Manifest manifest = Manifest.generate(this.pieceStore, this.algorithm, this.pieceSize,
+				this.executorService);
+		if (this.manifestDigest != null && !Arrays.equals(manifest.digest(), this.manifestDigest)) {
+			throw new IOException("The file does not match the configured manifest digest");
+		}
+		manifest.write(this.manifestFileName);
+		this.manifest.complete(manifest);
+	}
+
+	/*
+	 * Loads the manifest saved by an earlier run, if there is one. Throws if it cannot be read, describes another
+	 * file or does not have the configured digest; the caller then discards it and fetches the manifest again.
+	 */
+	public void loadManifest() throws IOException {
+		final Manifest manifest = Manifest.load(this.manifestFileName);
+		if (manifest == null) {
+			return;
+		}
+		if (!manifest.matches(this.algorithm, this.pieceStore.getFileSize(), this.pieceSize)) {
+			throw new IOException("Manifest " + this.manifestFileName + " does not describe this file");
+		}
+		if (!Arrays.equals(manifest.digest(), this.manifestDigest)) {
+			throw new IOException("Manifest " + this.manifestFileName + " does not match the configured digest");
+		}
+		this.manifest.complete(manifest);
+	}
+
+	public void discardManifest() throws IOException {
+		Files.deleteIfExists(Path.of(this.manifestFileName));
+	}
+
+	/*
+	 * Takes a manifest received from a neighbor and saves it for later runs. Returns false if one was already held,
+	 * and throws without taking it if it does not have the configured digest.
+	 */
+	public synchronized boolean offerManifest(Manifest manifest) throws IOException {
+		if (this.manifest.isDone()) {
+			return false;
+		}
+		if (!Arrays.equals(manifest.digest(), this.manifestDigest)) {
+			throw new ProtocolException("Manifest does not match the configured digest");
+		}
+		manifest.write(this.manifestFileName);
+		return this.manifest.complete(manifest);
+	}
+
+	public boolean hasManifest() {
+		return this.manifest.isDone();
+	}
+
+	/*
+	 * Returns null until the manifest is known.
+	 */
+	public Manifest getManifest() {
+		return this.manifest.getNow(null);
+	}
+
+	/*
+	 * Completes with true if the piece as stored matches its manifest hash, once the manifest is known. Completes
+	 * exceptionally only if the piece cannot be read.
+	 */
+	public CompletableFuture<Boolean> verify(int pieceIndex) {
+		return this.manifest.thenApplyAsync(manifest -> {
+			try {
+				return manifest.verify(this.messageDigests.get(), this.pieceStore, pieceIndex);
+			}
+			catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, this.executorService);
+	}
+
+	/*
+	 * Blocking check of every piece in pieces, used when resuming a download with the manifest at hand. Returns the
+	 * pieces that failed or could not be read.
+	 */
+	public BitSet verifyAll(BitSet pieces) {
+		assert this.hasManifest();
+		final List<CompletableFuture<Boolean>> futures = new ArrayList<>(pieces.cardinality());
+		for (int pieceIndex = pieces.nextSetBit(0); pieceIndex >= 0; pieceIndex = pieces.nextSetBit(pieceIndex + 1)) {
+			futures.add(this.verify(pieceIndex));
+		}
+
+		final BitSet failedPieces = new BitSet();
+		int i = 0;
+		for (int pieceIndex = pieces.nextSetBit(0); pieceIndex >= 0; pieceIndex = pieces.nextSetBit(pieceIndex + 1)) {
+			try {
+				if (!futures.get(i++).join()) {
+					failedPieces.set(pieceIndex);
+				}
+			}
+			catch (final CompletionException e) {
+				failedPieces.set(pieceIndex);
+			}
+		}
+		return failedPieces;
+	}
+
+}
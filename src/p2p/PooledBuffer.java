@@ -0,0 +1,54 @@
+package p2p;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * A direct buffer on loan from a BufferPool. Every holder that keeps the buffer beyond the call that handed it over
+ * must retain it, and every retain (plus the initial acquire) is matched by exactly one release.
+ */
+public class PooledBuffer {
+
+	private final BufferPool pool;
+	private final ByteBuffer byteBuffer;
+	private final boolean recyclable;
+	private final AtomicInteger referenceCount;
+
+	PooledBuffer(BufferPool pool, ByteBuffer byteBuffer, boolean recyclable) {
+		this.pool = pool;
+		this.byteBuffer = byteBuffer;
+		this.recyclable = recyclable;
+		this.referenceCount = new AtomicInteger(1);
+	}
+
+	void reset() {
+		this.byteBuffer.clear();
+		this.referenceCount.set(1);
+	}
+
+	public PooledBuffer retain() {
+		if (this.referenceCount.getAndIncrement() <= 0) {
+			throw new IllegalStateException("Buffer already released");
+		}
+		return this;
+	}
+
+	public void release() {
+		final int remaining = this.referenceCount.decrementAndGet();
+		if (remaining == 0) {
+			this.pool.recycle(this);
+		}
+		else if (remaining < 0) {
+			throw new IllegalStateException("Buffer released more often than retained");
+		}
+	}
+
+	public ByteBuffer getByteBuffer() {
+		return this.byteBuffer;
+	}
+
+	boolean isRecyclable() {
+		return this.recyclable;
+	}
+
+}
@@ -0,0 +1,468 @@
+package p2p;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.BitSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class RemotePeerInfo {
+
+	// Process-wide limits, parents of every connection's own buckets
+	private static final TokenBucket globalUploadBucket = new TokenBucket(0, null);
+	private static final TokenBucket globalDownloadBucket = new TokenBucket(0, null);
+	private static volatile long peerUploadRate;
+	private static volatile long peerDownloadRate;
+
+	private String peerId;
+	private final Socket socket;
+	private final MessageReader messageReader;
+	private final OutputStream outputStream;
+	// Not a monitor: a virtual thread blocked in a write while holding one would pin its carrier thread
+	private final ReentrantLock sendLock = new ReentrantLock();
+	// Blocking transport: frames waiting for whichever thread holds the send lock to write them
+	private final Queue<byte[]> outboundQueue = new ConcurrentLinkedQueue<>();
+	private final NioConnection nioConnection;
+	// Blocking transport: throttled uploads wait here rather than on the receive thread, which handles CHOKE and HAVE
+	private final ThreadPoolExecutor uploader;
+	private final TokenBucket uploadBucket = new TokenBucket(peerUploadRate, globalUploadBucket);
+	private final TokenBucket downloadBucket = new TokenBucket(peerDownloadRate, globalDownloadBucket);
+
+	private CompactBitField bitField;
+	// Piece data received from this neighbor, which is what tit-for-tat rewards
+	private final ThroughputMeter downloadMeter = new ThroughputMeter();
+	private final PeerMetrics metrics = new PeerMetrics(this, Metrics.getDefault());
+	private boolean choked;
+	private boolean optimisticallyUnchoked;
+	private boolean blockTransfers;
+	private boolean peerExchange;
+	private boolean compactBitField;
+	private boolean manifestExchange;
+	// Asked for the manifest before this peer had it; answered once it arrives
+	private volatile boolean manifestRequested;
+	private final Set<Long> outstandingRequests = ConcurrentHashMap.newKeySet();
+	// HAVEs not sent because this neighbor already had the piece; see SendRedundantHave
+	private final BitSet suppressedHaves = new BitSet();
+
+	public RemotePeerInfo(String peerId, Socket socket) throws IOException {
+		this.peerId = peerId;
+		this.socket = socket;
+
+		final ReadableByteChannel inputChannel = socket.getChannel() != null ? socket.getChannel()
+				: Channels.newChannel(socket.getInputStream());
+		this.messageReader = new MessageReader(inputChannel, BufferPool.getDefault(), PeerProcess.getMaxFrameSize());
+		this.outputStream = new BufferedOutputStream(socket.getOutputStream());
+		this.nioConnection = null;
+		// Started on first use and retired when idle; a virtual thread under ThreadMode VIRTUAL
+		final ThreadFactory threadFactory = ThreadFactories.newThreadFactory(PeerProcess.threadMode,
+				"Thread - Uploader ");
+		this.uploader = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			final Thread thread = threadFactory.newThread(runnable);
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		this.choked = true;
+		this.optimisticallyUnchoked = false;
+	}
+
+	public RemotePeerInfo(String peerId, NioConnection nioConnection) {
+		this.peerId = peerId;
+		this.socket = nioConnection.getSocketChannel().socket();
+		this.messageReader = null;
+		this.outputStream = null;
+		this.nioConnection = nioConnection;
+		this.uploader = null;
+
+		this.choked = true;
+		this.optimisticallyUnchoked = false;
+	}
+
+	public RemotePeerInfo(String peerId) {
+		this.peerId = peerId;
+		this.socket = null;
+		this.messageReader = null;
+		this.outputStream = null;
+		this.nioConnection = null;
+		this.uploader = null;
+		this.choked = true;
+		this.optimisticallyUnchoked = false;
+	}
+
+	public HandShakeMessage receiveHandShakeMessage() throws IOException {
+		return this.messageReader.readHandShakeMessage();
+	}
+
+	public void sendHandShakeMessage(String peerId, byte extensionFlags, byte[] infoHash) throws IOException {
+		final HandShakeMessage handShakeMessage = new HandShakeMessage(peerId, extensionFlags, infoHash);
+		this.queueFrame(handShakeMessage.getHandShakeMessage());
+	}
+
+	/*
+	 * Only used by the blocking transport. The view must be released before the next call.
+	 *
+	 * Only PIECE payloads are charged to the download bucket, and only they wait for it, so throttling never holds
+	 * back a CHOKE, HAVE or REQUEST by itself. Leaving the bytes in the socket lets TCP flow control slow the sender.
+	 */
+	public MessageView receiveMessage() throws IOException {
+		final MessageView messageView = this.messageReader.readMessage();
+		this.metrics.addBytesDownloaded(4 + messageView.getMessageLength());
+		if (messageView.getMessageType() == Constants.ActualMessageType.PIECE) {
+			this.downloadBucket.consume(messageView.getPayloadLength());
+			this.downloadBucket.awaitAvailable();
+		}
+		return messageView;
+	}
+
+	/*
+	 * Blocking transport only, called by the receive loop once it has stopped.
+	 */
+	public void closeMessageReader() {
+		if (this.messageReader != null) {
+			this.messageReader.close();
+		}
+	}
+
+	public void sendActualMessage(int messageType, byte[] messagePayload) throws IOException {
+		ActualMessages actualMessages;
+		if (messagePayload != null) {
+			actualMessages = new ActualMessages(1 + messagePayload.length, messageType, messagePayload);
+		}
+		else {
+			actualMessages = new ActualMessages(1, messageType, messagePayload);
+		}
+		this.sendFrame(actualMessages.getActualMessage());
+	}
+
+	/*
+	 * Queues a complete frame. The array is not copied or modified, so one frame may be sent to many neighbors.
+	 */
+	public void sendFrame(byte[] frame) throws IOException {
+		this.metrics.onMessageSent(frame[4]);
+		this.queueFrame(frame);
+	}
+
+	private void queueFrame(byte[] frame) throws IOException {
+		this.metrics.addBytesUploaded(frame.length);
+		if (this.nioConnection != null) {
+			this.nioConnection.send(ByteBuffer.wrap(frame));
+			return;
+		}
+		this.outboundQueue.add(frame);
+		this.drainOutboundQueue();
+	}
+
+	/*
+	 * Blocking transport: a thread that finds the send lock taken leaves its frame queued and returns, and the holder
+	 * writes it before letting go, so a burst of HAVEs from several threads goes out with a single flush. Every
+	 * holder checks the queue again after unlocking, which is what keeps a frame from being left behind.
+	 */
+	private void drainOutboundQueue() throws IOException {
+		while (!this.outboundQueue.isEmpty() && this.sendLock.tryLock()) {
+			try {
+				this.writeOutboundQueue();
+				this.outputStream.flush();
+			}
+			finally {
+				this.sendLock.unlock();
+			}
+		}
+	}
+
+	private void writeOutboundQueue() throws IOException {
+		byte[] frame;
+		while (( frame = this.outboundQueue.poll() ) != null) {
+			this.outputStream.write(frame);
+		}
+	}
+
+	/*
+	 * Sends a PIECE message without copying the piece onto the heap: only the 9 byte header is built here and the
+	 * body is streamed from the PieceStore's file channel.
+	 */
+	public void sendPiece(int pieceIndex, PieceStore pieceStore) throws IOException {
+		final int pieceLength = pieceStore.getPieceLength(pieceIndex);
+		final ByteBuffer header = ByteBuffer.allocate(9);
+		header.putInt(1 + 4 + pieceLength);
+		header.put((byte) Constants.ActualMessageType.PIECE.ordinal());
+		header.putInt(pieceIndex);
+		header.flip();
+		this.sendPieceData(header, new FileRegion(pieceStore, pieceIndex, 0, pieceLength));
+	}
+
+	/*
+	 * Block variant of sendPiece; the header also carries the block's offset within the piece.
+	 */
+	public void sendBlock(int pieceIndex, int blockOffset, int blockLength, PieceStore pieceStore)
+			throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(13);
+		header.putInt(1 + 8 + blockLength);
+		header.put((byte) Constants.ActualMessageType.PIECE.ordinal());
+		header.putInt(pieceIndex);
+		header.putInt(blockOffset);
+		header.flip();
+		this.sendPieceData(header, new FileRegion(pieceStore, pieceIndex, blockOffset, blockLength));
+	}
+
+	private void sendPieceData(ByteBuffer header, FileRegion fileRegion) throws IOException {
+		this.metrics.onMessageSent(Constants.ActualMessageType.PIECE.ordinal());
+		this.metrics.addBytesUploaded(header.remaining() + fileRegion.getLength());
+		if (this.nioConnection != null) {
+			this.nioConnection.send(header, fileRegion);
+			return;
+		}
+		if (!this.uploadBucket.isLimited()) {
+			this.writePieceData(header, fileRegion);
+			return;
+		}
+		this.uploader.execute(() -> {
+			try {
+				this.uploadBucket.awaitAvailable();
+				this.uploadBucket.consume(fileRegion.getLength());
+				this.writePieceData(header, fileRegion);
+			}
+			catch (final IOException e) {
+				// The connection closed while the piece was waiting
+			}
+		});
+	}
+
+	private void writePieceData(ByteBuffer header, FileRegion fileRegion) throws IOException {
+		this.sendLock.lock();
+		try {
+			// Frames queued before this piece go out first
+			this.writeOutboundQueue();
+			this.outputStream.write(header.array());
+			this.outputStream.flush();
+			final WritableByteChannel target = this.socket.getChannel() != null ? this.socket.getChannel()
+					: Channels.newChannel(this.outputStream);
+			while (fileRegion.hasRemaining()) {
+				fileRegion.transferTo(target);
+			}
+			this.outputStream.flush();
+		}
+		finally {
+			this.sendLock.unlock();
+		}
+		this.drainOutboundQueue();
+	}
+
+	/*
+	 * Drops a PIECE for pieceIndex that is queued but not yet on the wire. The blocking transport writes pieces
+	 * synchronously, so there is never anything to drop there.
+	 */
+	public void cancelPiece(int pieceIndex, int offsetInPiece) {
+		if (this.nioConnection != null) {
+			this.nioConnection.cancelPiece(pieceIndex, offsetInPiece);
+		}
+	}
+
+	/*
+	 * Messages handed to this connection and not yet written.
+	 */
+	public int getQueuedMessages() {
+		if (this.nioConnection != null) {
+			return this.nioConnection.getQueuedMessages();
+		}
+		return this.uploader == null ? 0 : this.outboundQueue.size() + this.uploader.getQueue().size();
+	}
+
+	public TokenBucket getUploadBucket() {
+		return this.uploadBucket;
+	}
+
+	public TokenBucket getDownloadBucket() {
+		return this.downloadBucket;
+	}
+
+	public static TokenBucket getGlobalUploadBucket() {
+		return globalUploadBucket;
+	}
+
+	public static TokenBucket getGlobalDownloadBucket() {
+		return globalDownloadBucket;
+	}
+
+	/*
+	 * Limits given to connections opened from now on.
+	 */
+	public static void setPeerUploadRate(long bytesPerSecond) {
+		peerUploadRate = bytesPerSecond;
+	}
+
+	public static void setPeerDownloadRate(long bytesPerSecond) {
+		peerDownloadRate = bytesPerSecond;
+	}
+
+	public String getPeerId() {
+		return this.peerId;
+	}
+
+	public void setPeerId(String peerId) {
+		this.peerId = peerId;
+	}
+
+	public CompactBitField getBitField() {
+		return this.bitField;
+	}
+
+	public void setBitField(CompactBitField bitField) {
+		this.bitField = bitField;
+	}
+
+	/*
+	 * Returns true if the neighbor did not have the piece before.
+	 */
+	public boolean setBitFieldIndex(int index) {
+		return this.bitField.set(index);
+	}
+
+	public ThroughputMeter getDownloadMeter() {
+		return this.downloadMeter;
+	}
+
+	public PeerMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	public boolean isChoked() {
+		return this.choked;
+	}
+
+	public void setChoked(boolean choked) {
+		this.choked = choked;
+	}
+
+	public boolean isOptimisticallyUnchoked() {
+		return this.optimisticallyUnchoked;
+	}
+
+	public void setOptimisticallyUnchoked(boolean optimisticallyUnchoked) {
+		this.optimisticallyUnchoked = optimisticallyUnchoked;
+	}
+
+	public boolean isBlockTransfers() {
+		return this.blockTransfers;
+	}
+
+	public void setBlockTransfers(boolean blockTransfers) {
+		this.blockTransfers = blockTransfers;
+	}
+
+	public boolean isManifestExchange() {
+		return this.manifestExchange;
+	}
+
+	public void setManifestExchange(boolean manifestExchange) {
+		this.manifestExchange = manifestExchange;
+	}
+
+	public boolean isManifestRequested() {
+		return this.manifestRequested;
+	}
+
+	public void setManifestRequested(boolean manifestRequested) {
+		this.manifestRequested = manifestRequested;
+	}
+
+	public boolean isPeerExchange() {
+		return this.peerExchange;
+	}
+
+	public void setPeerExchange(boolean peerExchange) {
+		this.peerExchange = peerExchange;
+	}
+
+	public boolean isCompactBitField() {
+		return this.compactBitField;
+	}
+
+	public void setCompactBitField(boolean compactBitField) {
+		this.compactBitField = compactBitField;
+	}
+
+	public Set<Long> getOutstandingRequests() {
+		return this.outstandingRequests;
+	}
+
+	public void suppressHave(int pieceIndex) {
+		synchronized (this.suppressedHaves) {
+			this.suppressedHaves.set(pieceIndex);
+		}
+	}
+
+	/*
+	 * Returns the HAVEs suppressed so far and forgets them.
+	 */
+	public BitSet takeSuppressedHaves() {
+		synchronized (this.suppressedHaves) {
+			final BitSet taken = (BitSet) this.suppressedHaves.clone();
+			this.suppressedHaves.clear();
+			return taken;
+		}
+	}
+
+	public Socket getSocket() {
+		return this.socket;
+	}
+
+	public OutputStream getOutputStream() {
+		return this.outputStream;
+	}
+
+	public NioConnection getNioConnection() {
+		return this.nioConnection;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ( this.peerId == null ? 0 : this.peerId.hashCode() );
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (this.getClass() != obj.getClass()) {
+			return false;
+		}
+		final RemotePeerInfo other = (RemotePeerInfo) obj;
+		if (this.peerId == null) {
+			if (other.peerId != null) {
+				return false;
+			}
+		}
+		else if (!this.peerId.equals(other.peerId)) {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "RemotePeerInfo [peerId=" + this.peerId + ", socket=" + this.socket + ", bitField=" + this.bitField
+				+ ", downloadRate=" + this.downloadMeter.getRate() + ", choked=" + this.choked
+				+ ", optimisticallyUnchoked=" + this.optimisticallyUnchoked + "]";
+	}
+
+}
@@ -0,0 +1,241 @@
+package p2p;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * One shared file and everything the swarm for it needs: the local pieces, neighbor connections and choking state.
+ * A PeerProcess serves any number of shares over the same listen port, event loops and verification pool; each
+ * connection belongs to exactly one share, named by the info-hash in its handshake.
+ *
+ * Everything here is safe to use without holding a lock, so no thread ever performs network I/O while other
+ * connections wait on it: the bitfield is word-atomic, the neighbor sets are concurrent, and the connection list is
+ * copy-on-write, since it is iterated on every HAVE broadcast and written only when a connection is established.
+ */
+public class Share {
+
+	private final String fileName;
+	private final long fileSize;
+	private final int pieceSize;
+	private final int noOfPieces;
+	private final byte[] infoHash;
+	// Digest of the manifest from Common.cfg, or null; the only manifest this peer accepts from its neighbors
+	private final byte[] manifestDigest;
+
+	private final PieceAvailability pieceAvailability;
+	private final PieceClaimTable pieceClaimTable;
+	private final Map<Integer, PartialPiece> partialPieces;
+	// Whole pieces written and awaiting verification; a duplicate arriving meanwhile must not overwrite them
+	private final Set<Integer> piecesBeingVerified;
+	// Pieces an earlier run recorded before this one had a manifest to check them against
+	private final AtomicReference<BitSet> unverifiedResumedPieces;
+	private final List<PeerManager> peerManagers;
+	private final Set<RemotePeerInfo> interestedNeighbors;
+	private final Set<RemotePeerInfo> preferredNeighbors;
+	// Peer IDs seen with the whole file; they keep it, so this only grows
+	private final Set<String> completePeers;
+	// Peer IDs an outgoing connection is being set up to, retries included
+	private final Set<String> connectingPeers;
+	private final AtomicBoolean hasFile;
+	private final AtomicBitField bitField;
+
+	private PieceStore pieceStore;
+	private PieceVerifier pieceVerifier;
+	// Set only while this peer started out seeding the share with SuperSeeding on
+	private SuperSeeder superSeeder;
+	private BitFieldStore bitFieldStore;
+	private volatile RemotePeerInfo optimisticallyUnchokedNeighbor;
+
+	public Share(String fileName, long fileSize, int pieceSize, byte[] manifestDigest, long claimTimeoutMillis) {
+		this.fileName = fileName;
+		this.fileSize = fileSize;
+		this.pieceSize = pieceSize;
+		this.noOfPieces = (int) ( ( fileSize + pieceSize - 1 ) / pieceSize );
+		this.manifestDigest = manifestDigest;
+		this.infoHash = computeInfoHash(fileName, fileSize, pieceSize, manifestDigest);
+
+		this.pieceAvailability = new PieceAvailability(this.noOfPieces);
+		this.pieceClaimTable = new PieceClaimTable(this.noOfPieces, claimTimeoutMillis);
+		this.partialPieces = new ConcurrentHashMap<>();
+		this.piecesBeingVerified = ConcurrentHashMap.newKeySet();
+		this.unverifiedResumedPieces = new AtomicReference<>();
+		this.peerManagers = new CopyOnWriteArrayList<>();
+		this.interestedNeighbors = ConcurrentHashMap.newKeySet();
+		this.preferredNeighbors = ConcurrentHashMap.newKeySet();
+		this.completePeers = ConcurrentHashMap.newKeySet();
+		this.connectingPeers = ConcurrentHashMap.newKeySet();
+		this.hasFile = new AtomicBoolean(false);
+		this.bitField = new AtomicBitField(this.noOfPieces);
+	}
+
+	/*
+	 * Leading bytes of SHA-1 over the share's Common.cfg description, so every peer configured with the same file
+	 * derives the same key without exchanging anything. A configured manifest digest is part of it, so the key names
+	 * the content as well and only peers expecting the same piece hashes meet.
+	 */
+	public static byte[] computeInfoHash(String fileName, long fileSize, int pieceSize, byte[] manifestDigest) {
+		String description = fileName + " " + fileSize + " " + pieceSize;
+		if (manifestDigest != null) {
+			description += " " + HexFormat.of().formatHex(manifestDigest);
+		}
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-1")
+					.digest(description.getBytes(StandardCharsets.UTF_8));
+			return Arrays.copyOf(digest, Constants.INFO_HASH_LENGTH);
+		}
+		catch (final NoSuchAlgorithmException e) {
+			// Every Java platform is required to provide SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String toKey(byte[] infoHash) {
+		return HexFormat.of().formatHex(infoHash);
+	}
+
+	public boolean isComplete() {
+		return this.bitField.isComplete();
+	}
+
+	public String getFileName() {
+		return this.fileName;
+	}
+
+	public long getFileSize() {
+		return this.fileSize;
+	}
+
+	public int getPieceSize() {
+		return this.pieceSize;
+	}
+
+	public int getNoOfPieces() {
+		return this.noOfPieces;
+	}
+
+	public byte[] getInfoHash() {
+		return this.infoHash;
+	}
+
+	/*
+	 * Returns null if Common.cfg does not pin the manifest.
+	 */
+	public byte[] getManifestDigest() {
+		return this.manifestDigest;
+	}
+
+	public String getKey() {
+		return toKey(this.infoHash);
+	}
+
+	public PieceAvailability getPieceAvailability() {
+		return this.pieceAvailability;
+	}
+
+	public PieceClaimTable getPieceClaimTable() {
+		return this.pieceClaimTable;
+	}
+
+	public Map<Integer, PartialPiece> getPartialPieces() {
+		return this.partialPieces;
+	}
+
+	public Set<Integer> getPiecesBeingVerified() {
+		return this.piecesBeingVerified;
+	}
+
+	public List<PeerManager> getPeerManagers() {
+		return this.peerManagers;
+	}
+
+	public Set<RemotePeerInfo> getInterestedNeighbors() {
+		return this.interestedNeighbors;
+	}
+
+	public Set<RemotePeerInfo> getPreferredNeighbors() {
+		return this.preferredNeighbors;
+	}
+
+	public Set<String> getCompletePeers() {
+		return this.completePeers;
+	}
+
+	public Set<String> getConnectingPeers() {
+		return this.connectingPeers;
+	}
+
+	public boolean hasFile() {
+		return this.hasFile.get();
+	}
+
+	public void setHasFile(boolean hasFile) {
+		this.hasFile.set(hasFile);
+	}
+
+	public AtomicBitField getBitField() {
+		return this.bitField;
+	}
+
+	public PieceStore getPieceStore() {
+		return this.pieceStore;
+	}
+
+	public void setPieceStore(PieceStore pieceStore) {
+		this.pieceStore = pieceStore;
+	}
+
+	public void setUnverifiedResumedPieces(BitSet unverifiedResumedPieces) {
+		this.unverifiedResumedPieces.set(unverifiedResumedPieces);
+	}
+
+	/*
+	 * Returns the unverified resumed pieces to exactly one caller, or null.
+	 */
+	public BitSet takeUnverifiedResumedPieces() {
+		return this.unverifiedResumedPieces.getAndSet(null);
+	}
+
+	public PieceVerifier getPieceVerifier() {
+		return this.pieceVerifier;
+	}
+
+	public void setPieceVerifier(PieceVerifier pieceVerifier) {
+		this.pieceVerifier = pieceVerifier;
+	}
+
+	public SuperSeeder getSuperSeeder() {
+		return this.superSeeder;
+	}
+
+	public void setSuperSeeder(SuperSeeder superSeeder) {
+		this.superSeeder = superSeeder;
+	}
+
+	public BitFieldStore getBitFieldStore() {
+		return this.bitFieldStore;
+	}
+
+	public void setBitFieldStore(BitFieldStore bitFieldStore) {
+		this.bitFieldStore = bitFieldStore;
+	}
+
+	public RemotePeerInfo getOptimisticallyUnchokedNeighbor() {
+		return this.optimisticallyUnchokedNeighbor;
+	}
+
+	public void setOptimisticallyUnchokedNeighbor(RemotePeerInfo optimisticallyUnchokedNeighbor) {
+		this.optimisticallyUnchokedNeighbor = optimisticallyUnchokedNeighbor;
+	}
+
+}
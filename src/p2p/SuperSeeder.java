@@ -0,0 +1,156 @@
+package p2p;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/*
+ * Super-seeding for a share this peer starts out seeding. Neighbors see an empty bitfield, then are offered one piece
+ * at a time with a HAVE, each time the piece offered least so far among those no neighbor has yet. A neighbor is
+ * offered its next piece once the last one shows up at another neighbor, so the seed uploads each piece about once
+ * and leechers trade the rest among themselves. When every piece has reached some neighbor the swarm holds a whole
+ * copy without the seed, and super-seeding ends: the pieces not yet offered are announced as usual.
+ *
+ * Offers are decided under the instance lock and sent by the caller afterwards, so no I/O happens under it.
+ */
+public class SuperSeeder {
+
+	private final int noOfPieces;
+	// Pieces some neighbor has reported having
+	private final BitSet propagated;
+	// A random order of the pieces; those before nextUnoffered have been offered at least once, or have propagated
+	private final int[] offerOrder;
+	private int nextUnoffered;
+	private final int[] offerCounts;
+	private final Map<RemotePeerInfo, Integer> currentOffers;
+	private final Map<RemotePeerInfo, BitSet> offeredPieces;
+	private boolean active;
+
+	public SuperSeeder(int noOfPieces) {
+		this.noOfPieces = noOfPieces;
+		this.propagated = new BitSet(noOfPieces);
+		this.offerOrder = new int[noOfPieces];
+		final Random random = new Random();
+		for (int i = 0; i < noOfPieces; i++) {
+			final int j = random.nextInt(i + 1);
+			this.offerOrder[i] = this.offerOrder[j];
+			this.offerOrder[j] = i;
+		}
+		this.offerCounts = new int[noOfPieces];
+		this.currentOffers = new HashMap<>();
+		this.offeredPieces = new HashMap<>();
+		this.active = true;
+	}
+
+	public synchronized boolean isActive() {
+		return this.active;
+	}
+
+	/*
+	 * Called once the neighbor's bitfield has arrived. Returns the piece to offer it, or -1.
+	 */
+	public synchronized int onBitField(RemotePeerInfo neighbor) {
+		this.propagated.or(neighbor.getBitField().toBitSet());
+		this.offeredPieces.put(neighbor, new BitSet());
+		return this.active ? this.offer(neighbor) : -1;
+	}
+
+	/*
+	 * Called for every HAVE from neighbor. Returns the neighbors that have earned a new offer, with the piece to offer
+	 * each. The neighbor that sent the HAVE earns one itself when it was offered the piece and no other neighbor
+	 * still lacks it, since then nobody is left to pass it on to.
+	 */
+	public synchronized Map<RemotePeerInfo, Integer> onHave(RemotePeerInfo neighbor, int pieceIndex) {
+		this.propagated.set(pieceIndex);
+		final Map<RemotePeerInfo, Integer> offers = new LinkedHashMap<>();
+		if (!this.active) {
+			return offers;
+		}
+		for (final Map.Entry<RemotePeerInfo, Integer> currentOffer : this.currentOffers.entrySet()) {
+			if (currentOffer.getValue() == pieceIndex
+					&& ( currentOffer.getKey() != neighbor || this.noOtherNeighborLacks(neighbor, pieceIndex) )) {
+				offers.put(currentOffer.getKey(), -1);
+			}
+		}
+		for (final Map.Entry<RemotePeerInfo, Integer> offer : offers.entrySet()) {
+			offer.setValue(this.offer(offer.getKey()));
+		}
+		offers.values().removeIf(offeredPiece -> offeredPiece == -1);
+		return offers;
+	}
+
+	private boolean noOtherNeighborLacks(RemotePeerInfo neighbor, int pieceIndex) {
+		for (final RemotePeerInfo other : this.offeredPieces.keySet()) {
+			if (other != neighbor && !other.getBitField().get(pieceIndex)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Returns true, to exactly one caller, once every piece has reached some neighbor; super-seeding is over then.
+	 */
+	public synchronized boolean finish() {
+		if (!this.active || this.propagated.cardinality() < this.noOfPieces) {
+			return false;
+		}
+		this.active = false;
+		this.currentOffers.clear();
+		return true;
+	}
+
+	/*
+	 * Pieces already offered to neighbor, which need no HAVE when super-seeding ends.
+	 */
+	public synchronized BitSet getOfferedPieces(RemotePeerInfo neighbor) {
+		final BitSet offered = this.offeredPieces.get(neighbor);
+		return offered == null ? new BitSet() : (BitSet) offered.clone();
+	}
+
+	public synchronized void remove(RemotePeerInfo neighbor) {
+		this.currentOffers.remove(neighbor);
+		this.offeredPieces.remove(neighbor);
+	}
+
+	/*
+	 * Pieces never offered come first, in random order; after that the unpropagated piece offered least often.
+	 */
+	private int offer(RemotePeerInfo neighbor) {
+		final CompactBitField held = neighbor.getBitField();
+		final BitSet offered = this.offeredPieces.computeIfAbsent(neighbor, key -> new BitSet());
+		int pieceIndex = -1;
+		for (int k = this.nextUnoffered; k < this.noOfPieces; k++) {
+			final int candidate = this.offerOrder[k];
+			if (this.propagated.get(candidate) || !held.get(candidate) && !offered.get(candidate)) {
+				// Move it into the offered part of the order; propagated pieces need no offer at all
+				this.offerOrder[k] = this.offerOrder[this.nextUnoffered];
+				this.offerOrder[this.nextUnoffered++] = candidate;
+				if (!this.propagated.get(candidate)) {
+					pieceIndex = candidate;
+					break;
+				}
+			}
+		}
+		if (pieceIndex == -1) {
+			for (int candidate = this.propagated.nextClearBit(0); candidate < this.noOfPieces;
+					candidate = this.propagated.nextClearBit(candidate + 1)) {
+				if (!held.get(candidate) && !offered.get(candidate)
+						&& ( pieceIndex == -1 || this.offerCounts[candidate] < this.offerCounts[pieceIndex] )) {
+					pieceIndex = candidate;
+				}
+			}
+		}
+		if (pieceIndex == -1) {
+			this.currentOffers.remove(neighbor);
+			return -1;
+		}
+		this.offerCounts[pieceIndex]++;
+		offered.set(pieceIndex);
+		this.currentOffers.put(neighbor, pieceIndex);
+		return pieceIndex;
+	}
+
+}
@@ -0,0 +1,44 @@
+package p2p;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Threads for the blocking transport's receive loops and uploaders, the accept loop and the choking and shutdown
+ * schedulers. Virtual threads need a Java 21 runtime; Thread.ofVirtual is looked up reflectively so the project still
+ * builds for 17, and there ThreadMode VIRTUAL falls back to platform threads.
+ */
+public final class ThreadFactories {
+
+	private ThreadFactories() {
+	}
+
+	public static ThreadFactory newThreadFactory(Constants.ThreadMode threadMode, String namePrefix) {
+		if (threadMode == Constants.ThreadMode.VIRTUAL) {
+			final ThreadFactory virtualThreadFactory = newVirtualThreadFactory(namePrefix);
+			if (virtualThreadFactory != null) {
+				return virtualThreadFactory;
+			}
+		}
+		final AtomicInteger threadCount = new AtomicInteger();
+		return runnable -> new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+	}
+
+	public static boolean isVirtualThreadSupported() {
+		return newVirtualThreadFactory("") != null;
+	}
+
+	private static ThreadFactory newVirtualThreadFactory(String namePrefix) {
+		try {
+			// The builder's own class is not public; its methods must be invoked through the Thread.Builder interface
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		}
+		catch (final ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+}
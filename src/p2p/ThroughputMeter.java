@@ -0,0 +1,46 @@
+package p2p;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Bytes per second received from one neighbor, as an exponentially weighted moving average. Receive threads count
+ * bytes as they arrive; the choking scheduler samples once per unchoke interval, folding what arrived since the last
+ * sample into the average with a weight that depends on how long ago that was, so late or early samples are not
+ * over- or under-counted.
+ */
+public class ThroughputMeter {
+
+	private final AtomicLong bytes = new AtomicLong();
+	private long lastSampleNanos;
+	private double rate;
+
+	public ThroughputMeter() {
+		this.lastSampleNanos = System.nanoTime();
+	}
+
+	public void add(long byteCount) {
+		this.bytes.addAndGet(byteCount);
+	}
+
+	/*
+	 * Folds in the bytes counted since the last sample and returns the new average. windowNanos is the time constant:
+	 * bytes received one window ago weigh 1/e as much as bytes received now.
+	 */
+	public synchronized double sample(long windowNanos) {
+		final long now = System.nanoTime();
+		final long elapsedNanos = now - this.lastSampleNanos;
+		if (elapsedNanos <= 0) {
+			return this.rate;
+		}
+		this.lastSampleNanos = now;
+		final double intervalRate = this.bytes.getAndSet(0) * 1e9 / elapsedNanos;
+		final double weight = 1 - Math.exp(-(double) elapsedNanos / windowNanos);
+		this.rate += weight * ( intervalRate - this.rate );
+		return this.rate;
+	}
+
+	public synchronized double getRate() {
+		return this.rate;
+	}
+
+}
@@ -0,0 +1,92 @@
+package p2p;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Token bucket shaping one direction of traffic, in bytes per second; 0 means unlimited. A transfer may start
+ * whenever the bucket is not in debt and is then charged in full, so a PIECE still goes out in one go while the
+ * average rate holds. A connection's bucket has the process-wide one as its parent and waits for and charges both.
+ * The rate may be changed at any time; the bucket holds at most one second's worth of tokens.
+ */
+public class TokenBucket {
+
+	private final TokenBucket parent;
+	private long bytesPerSecond;
+	private double tokens;
+	private long lastRefillNanos;
+
+	public TokenBucket(long bytesPerSecond, TokenBucket parent) {
+		this.parent = parent;
+		this.bytesPerSecond = bytesPerSecond;
+		this.tokens = bytesPerSecond;
+		this.lastRefillNanos = System.nanoTime();
+	}
+
+	public synchronized long getBytesPerSecond() {
+		return this.bytesPerSecond;
+	}
+
+	public synchronized void setBytesPerSecond(long bytesPerSecond) {
+		this.refill();
+		this.bytesPerSecond = bytesPerSecond;
+		this.tokens = Math.min(this.tokens, bytesPerSecond);
+	}
+
+	public boolean isLimited() {
+		return this.getBytesPerSecond() > 0 || this.parent != null && this.parent.isLimited();
+	}
+
+	/*
+	 * 0 if a transfer may start now, otherwise how long until it may.
+	 */
+	public long nanosUntilAvailable() {
+		long nanos = 0;
+		synchronized (this) {
+			if (this.bytesPerSecond > 0) {
+				this.refill();
+				if (this.tokens <= 0) {
+					nanos = (long) Math.ceil(( 1 - this.tokens ) * 1e9 / this.bytesPerSecond);
+				}
+			}
+		}
+		return this.parent == null ? nanos : Math.max(nanos, this.parent.nanosUntilAvailable());
+	}
+
+	public void consume(long bytes) {
+		synchronized (this) {
+			if (this.bytesPerSecond > 0) {
+				this.refill();
+				this.tokens -= bytes;
+			}
+		}
+		if (this.parent != null) {
+			this.parent.consume(bytes);
+		}
+	}
+
+	/*
+	 * Blocking transport only: sleeps until a transfer may start.
+	 */
+	public void awaitAvailable() throws IOException {
+		long nanos;
+		while (( nanos = this.nanosUntilAvailable() ) > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(nanos);
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+			}
+		}
+	}
+
+	private void refill() {
+		final long now = System.nanoTime();
+		this.tokens = Math.min(this.bytesPerSecond,
+				this.tokens + ( now - this.lastRefillNanos ) * (double) this.bytesPerSecond / 1e9);
+		this.lastRefillNanos = now;
+	}
+
+}
@@ -0,0 +1,55 @@
+package p2p;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+public class AtomicBitFieldTest {
+
+	// Not a multiple of 64, so the last word has bits past the end
+	private static final int NO_OF_PIECES = 200;
+
+	@Test
+	public void nextClearBitStopsAtTheLastPiece() {
+		final AtomicBitField bitField = new AtomicBitField(NO_OF_PIECES);
+		final BitSet bitSet = new BitSet();
+		for (int pieceIndex = 0; pieceIndex < NO_OF_PIECES; pieceIndex++) {
+			if (pieceIndex % 5 != 0 && pieceIndex < 190) {
+				bitField.set(pieceIndex);
+				bitSet.set(pieceIndex);
+			}
+		}
+		bitField.set(0);
+		bitSet.set(0);
+		for (int fromIndex = 0; fromIndex <= NO_OF_PIECES; fromIndex++) {
+			final int expected = bitSet.nextClearBit(fromIndex);
+			assertEquals(expected < NO_OF_PIECES ? expected : -1, bitField.nextClearBit(fromIndex));
+		}
+
+		for (int pieceIndex = 190; pieceIndex < NO_OF_PIECES; pieceIndex++) {
+			bitField.set(pieceIndex);
+		}
+		assertEquals(-1, bitField.nextClearBit(186));
+	}
+
+	@Test
+	public void removeFromClearsHeldPieces() {
+		final AtomicBitField bitField = new AtomicBitField(NO_OF_PIECES);
+		bitField.set(3);
+		bitField.set(64);
+		bitField.set(199);
+		final BitSet bitSet = new BitSet();
+		bitSet.set(0, NO_OF_PIECES);
+		bitField.removeFrom(bitSet);
+
+		final BitSet expected = new BitSet();
+		expected.set(0, NO_OF_PIECES);
+		expected.clear(3);
+		expected.clear(64);
+		expected.clear(199);
+		assertEquals(expected, bitSet);
+	}
+
+}
@@ -0,0 +1,141 @@
+package p2p;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+public class CompactBitFieldTest {
+
+	private static final int NO_OF_PIECES = 1_000;
+
+	@Test
+	public void selectsTheShortestMessage() {
+		final BitSet bitSet = new BitSet();
+		assertEquals(Constants.ActualMessageType.HAVE_NONE, this.selectCompact(bitSet));
+		bitSet.set(0, NO_OF_PIECES);
+		assertEquals(Constants.ActualMessageType.HAVE_ALL, this.selectCompact(bitSet));
+
+		// Two runs take 16 bytes against 125 for the bitmap
+		bitSet.clear(100, 900);
+		assertEquals(Constants.ActualMessageType.BITFIELD_RUNS, this.selectCompact(bitSet));
+
+		final BitSet scattered = new BitSet();
+		for (int pieceIndex = 0; pieceIndex < NO_OF_PIECES; pieceIndex += 3) {
+			scattered.set(pieceIndex);
+		}
+		assertEquals(Constants.ActualMessageType.BITFIELD, this.selectCompact(scattered));
+		assertEquals(Constants.ActualMessageType.BITFIELD,
+				CompactBitField.selectMessageType(bitSet, NO_OF_PIECES, false));
+	}
+
+	@Test
+	public void roundTripsEveryForm() throws ProtocolException {
+		final BitSet runs = new BitSet();
+		runs.set(0, 100);
+		runs.set(900, NO_OF_PIECES);
+		final BitSet scattered = new BitSet();
+		for (int pieceIndex = 1; pieceIndex < NO_OF_PIECES; pieceIndex += 7) {
+			scattered.set(pieceIndex);
+		}
+		final BitSet all = new BitSet();
+		all.set(0, NO_OF_PIECES);
+
+		for (final BitSet bitSet : new BitSet[] { new BitSet(), runs, scattered, all }) {
+			for (final boolean compact : new boolean[] { false, true }) {
+				final Constants.ActualMessageType messageType = CompactBitField.selectMessageType(bitSet,
+						NO_OF_PIECES, compact);
+				final CompactBitField decoded = CompactBitField.decode(messageType,
+						CompactBitField.encode(messageType, bitSet, NO_OF_PIECES), NO_OF_PIECES);
+				assertEquals(bitSet, decoded.toBitSet(), messageType.toString());
+				assertEquals(bitSet.cardinality(), decoded.cardinality());
+			}
+		}
+		assertNull(CompactBitField.encode(Constants.ActualMessageType.HAVE_ALL, all, NO_OF_PIECES));
+	}
+
+	@Test
+	public void nextSetBitWalksEveryForm() {
+		final BitSet runs = new BitSet();
+		runs.set(10, 20);
+		runs.set(500, 501);
+		final BitSet scattered = new BitSet();
+		for (int pieceIndex = 3; pieceIndex < NO_OF_PIECES; pieceIndex += 3) {
+			scattered.set(pieceIndex);
+		}
+		final BitSet all = new BitSet();
+		all.set(0, NO_OF_PIECES);
+		for (final BitSet bitSet : new BitSet[] { new BitSet(), runs, scattered, all }) {
+			final CompactBitField compactBitField = CompactBitField.of(bitSet, NO_OF_PIECES);
+			for (int fromIndex = 0; fromIndex <= NO_OF_PIECES; fromIndex++) {
+				final int expected = bitSet.nextSetBit(fromIndex);
+				assertEquals(expected < NO_OF_PIECES ? expected : -1, compactBitField.nextSetBit(fromIndex));
+			}
+		}
+	}
+
+	@Test
+	public void copyIntoOverwritesTheTarget() {
+		final BitSet runs = new BitSet();
+		runs.set(10, 20);
+		final BitSet scattered = new BitSet();
+		for (int pieceIndex = 3; pieceIndex < NO_OF_PIECES; pieceIndex += 3) {
+			scattered.set(pieceIndex);
+		}
+		final BitSet all = new BitSet();
+		all.set(0, NO_OF_PIECES);
+		final BitSet target = new BitSet();
+		for (final BitSet bitSet : new BitSet[] { new BitSet(), runs, scattered, all }) {
+			target.set(1);
+			CompactBitField.of(bitSet, NO_OF_PIECES).copyInto(target);
+			assertEquals(bitSet, target);
+		}
+	}
+
+	@Test
+	public void setMergesRunsUntilComplete() {
+		final CompactBitField compactBitField = new CompactBitField(4);
+		assertTrue(compactBitField.isEmpty());
+		assertTrue(compactBitField.set(0));
+		assertTrue(compactBitField.set(2));
+		assertFalse(compactBitField.set(2));
+		assertTrue(compactBitField.set(3));
+		assertFalse(compactBitField.get(1));
+		assertFalse(compactBitField.isComplete());
+		assertTrue(compactBitField.set(1));
+		assertTrue(compactBitField.isComplete());
+		assertEquals(4, compactBitField.cardinality());
+		assertFalse(compactBitField.get(4));
+	}
+
+	@Test
+	public void rejectsPayloadsForAnotherPieceCount() {
+		// One byte short, and a spare bit set past the last piece
+		assertThrows(ProtocolException.class,
+				() -> CompactBitField.decode(Constants.ActualMessageType.BITFIELD, new byte[124], NO_OF_PIECES));
+		assertThrows(ProtocolException.class,
+				() -> CompactBitField.decode(Constants.ActualMessageType.BITFIELD, new byte[] { 1 }, 7));
+
+		// Runs that are truncated, empty, or reach past the last piece
+		assertThrows(ProtocolException.class,
+				() -> CompactBitField.decode(Constants.ActualMessageType.BITFIELD_RUNS, new byte[12], NO_OF_PIECES));
+		assertThrows(ProtocolException.class, () -> CompactBitField.decode(Constants.ActualMessageType.BITFIELD_RUNS,
+				ByteBuffer.allocate(8).putInt(10).putInt(0).array(), NO_OF_PIECES));
+		assertThrows(ProtocolException.class, () -> CompactBitField.decode(Constants.ActualMessageType.BITFIELD_RUNS,
+				ByteBuffer.allocate(8).putInt(990).putInt(11).array(), NO_OF_PIECES));
+		assertThrows(ProtocolException.class, () -> CompactBitField.decode(Constants.ActualMessageType.BITFIELD_RUNS,
+				ByteBuffer.allocate(8).putInt(-1).putInt(5).array(), NO_OF_PIECES));
+	}
+
+	private Constants.ActualMessageType selectCompact(BitSet bitSet) {
+		return CompactBitField.selectMessageType(bitSet, NO_OF_PIECES, true);
+	}
+
+}
@@ -0,0 +1,37 @@
+package p2p;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class DiskWriterTest {
+
+	@Test
+	public void tryReserveFailsWithoutBlockingOnceTheQueueIsFull() {
+		final DiskWriter diskWriter = new DiskWriter(2, Constants.FsyncPolicy.NONE);
+		final AtomicInteger slotsFreed = new AtomicInteger();
+		assertTrue(diskWriter.tryReserve(slotsFreed::incrementAndGet));
+		assertTrue(diskWriter.tryReserve(slotsFreed::incrementAndGet));
+		assertFalse(diskWriter.tryReserve(slotsFreed::incrementAndGet));
+		assertEquals(0, slotsFreed.get());
+	}
+
+	@Test
+	public void freeingASlotCallsEveryWaiterOnce() {
+		final DiskWriter diskWriter = new DiskWriter(1, Constants.FsyncPolicy.NONE);
+		final AtomicInteger slotsFreed = new AtomicInteger();
+		assertTrue(diskWriter.tryReserve(slotsFreed::incrementAndGet));
+		assertFalse(diskWriter.tryReserve(slotsFreed::incrementAndGet));
+		assertFalse(diskWriter.tryReserve(slotsFreed::incrementAndGet));
+
+		diskWriter.unreserve();
+		assertEquals(2, slotsFreed.get());
+		diskWriter.unreserve();
+		assertEquals(2, slotsFreed.get());
+	}
+
+}
@@ -0,0 +1,56 @@
+package p2p;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void emptyHistogramReportsZero() {
+		final LatencyHistogram latencyHistogram = new LatencyHistogram();
+		assertEquals(0, latencyHistogram.getCount());
+		assertEquals(0, latencyHistogram.getMeanMicros());
+		assertEquals(0, latencyHistogram.getValueAtPercentile(99));
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		final LatencyHistogram latencyHistogram = new LatencyHistogram();
+		for (int micros = 1; micros <= 20; micros++) {
+			latencyHistogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+		}
+		assertEquals(10, latencyHistogram.getValueAtPercentile(50));
+		assertEquals(20, latencyHistogram.getValueAtPercentile(100));
+		assertEquals(10.5, latencyHistogram.getMeanMicros());
+	}
+
+	@Test
+	public void percentilesAreWithinTheSubBucketResolution() {
+		final LatencyHistogram latencyHistogram = new LatencyHistogram();
+		for (int micros = 1; micros <= 100_000; micros++) {
+			latencyHistogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+		}
+		assertEquals(100_000, latencyHistogram.getCount());
+		assertEquals(50_000, latencyHistogram.getValueAtPercentile(50), 50_000 / 32.0);
+		assertEquals(99_000, latencyHistogram.getValueAtPercentile(99), 99_000 / 32.0);
+		// Capped at the largest value seen rather than the top of its bucket
+		assertEquals(100_000, latencyHistogram.getValueAtPercentile(100));
+		assertEquals(100_000, latencyHistogram.getMaxMicros());
+	}
+
+	@Test
+	public void valuesBeyondTheRangeLandInTheLastBucket() {
+		final LatencyHistogram latencyHistogram = new LatencyHistogram();
+		final long inRange = 3L << 39;
+		latencyHistogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(inRange));
+		latencyHistogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(1L << 41));
+		// Past the top magnitude the value must not wrap into a lower sub-bucket and sort below inRange
+		assertEquals(inRange, latencyHistogram.getValueAtPercentile(50), inRange / 32.0);
+		assertEquals(1L << 41, latencyHistogram.getValueAtPercentile(100));
+		assertEquals(1L << 41, latencyHistogram.getMaxMicros());
+	}
+
+}
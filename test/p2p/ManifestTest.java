@@ -0,0 +1,82 @@
+package p2p;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ManifestTest {
+
+	private static final long FILE_SIZE = 1000;
+	private static final int PIECE_SIZE = 300;
+
+	private static Manifest newManifest(int digestLength) {
+		final byte[][] pieceHashes = new byte[4][digestLength];
+		for (int pieceIndex = 0; pieceIndex < pieceHashes.length; pieceIndex++) {
+			Arrays.fill(pieceHashes[pieceIndex], (byte) pieceIndex);
+		}
+		return new Manifest("SHA-256", FILE_SIZE, PIECE_SIZE, pieceHashes);
+	}
+
+	@Test
+	public void payloadRoundTrips() throws ProtocolException {
+		final byte[] payload = newManifest(32).toPayload();
+		final Manifest manifest = Manifest.fromPayload(payload, "SHA-256", FILE_SIZE, PIECE_SIZE);
+		assertTrue(manifest.matches("SHA-256", FILE_SIZE, PIECE_SIZE));
+		assertArrayEquals(payload, manifest.toPayload());
+	}
+
+	@Test
+	public void payloadForAnotherShareIsRejected() {
+		final byte[] payload = newManifest(32).toPayload();
+		assertThrows(ProtocolException.class, () -> Manifest.fromPayload(payload, "SHA-256", FILE_SIZE, 250));
+		assertThrows(ProtocolException.class, () -> Manifest.fromPayload(payload, "SHA-1", FILE_SIZE, PIECE_SIZE));
+		assertThrows(ProtocolException.class,
+				() -> Manifest.fromPayload(Arrays.copyOf(payload, payload.length - 1), "SHA-256", FILE_SIZE,
+						PIECE_SIZE));
+	}
+
+	@Test
+	public void digestsOfTheWrongLengthDoNotMatch() {
+		assertFalse(newManifest(20).matches("SHA-256", FILE_SIZE, PIECE_SIZE));
+		assertFalse(newManifest(32).matches("SHA-256", FILE_SIZE + 1, PIECE_SIZE));
+	}
+
+	@Test
+	public void digestCoversEveryPieceHash() {
+		final byte[][] pieceHashes = new byte[4][32];
+		pieceHashes[3][31] = 1;
+		assertArrayEquals(newManifest(32).digest(), newManifest(32).digest());
+		assertFalse(Arrays.equals(new Manifest("SHA-256", FILE_SIZE, PIECE_SIZE, new byte[4][32]).digest(),
+				new Manifest("SHA-256", FILE_SIZE, PIECE_SIZE, pieceHashes).digest()));
+	}
+
+	@Test
+	public void emptyOrTruncatedFilesAreUnusable(@TempDir Path directory) throws IOException {
+		final Path manifestFile = directory.resolve("TheFile.dat.manifest");
+		assertNull(Manifest.load(manifestFile.toString()));
+
+		newManifest(32).write(manifestFile.toString());
+		final Manifest manifest = Manifest.load(manifestFile.toString());
+		assertArrayEquals(newManifest(32).toPayload(), manifest.toPayload());
+
+		final String contents = Files.readString(manifestFile);
+		Files.writeString(manifestFile, contents.substring(0, contents.length() / 2));
+		assertThrows(IOException.class, () -> Manifest.load(manifestFile.toString()));
+		Files.writeString(manifestFile, "");
+		assertThrows(IOException.class, () -> Manifest.load(manifestFile.toString()));
+		Files.writeString(manifestFile, "SHA-256 1000\n");
+		assertThrows(IOException.class, () -> Manifest.load(manifestFile.toString()));
+	}
+
+}
@@ -0,0 +1,182 @@
+package p2p;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import org.junit.jupiter.api.Test;
+
+public class MessageReaderTest {
+
+	@Test
+	public void parsesSeveralFramesFromOneRead() throws IOException {
+		final ByteBuffer frames = ByteBuffer.allocate(3 * 9);
+		for (int pieceIndex = 0; pieceIndex < 3; pieceIndex++) {
+			frames.putInt(5).put((byte) Constants.ActualMessageType.HAVE.ordinal()).putInt(pieceIndex);
+		}
+		final ChunkedChannel channel = new ChunkedChannel(frames.array(), Integer.MAX_VALUE);
+		final MessageReader messageReader = new MessageReader(channel, new BufferPool(4));
+		for (int pieceIndex = 0; pieceIndex < 3; pieceIndex++) {
+			final MessageView messageView = messageReader.readMessage();
+			assertEquals(Constants.ActualMessageType.HAVE, messageView.getMessageType());
+			assertEquals(pieceIndex, messageView.getPayloadInt(0));
+			messageView.release();
+		}
+		assertEquals(1, channel.reads);
+		messageReader.close();
+	}
+
+	@Test
+	public void reassemblesFramesSplitAcrossReads() throws IOException {
+		final ByteBuffer frames = ByteBuffer.allocate(32 + 9);
+		frames.put(new HandShakeMessage("1001", (byte) 0).getHandShakeMessage());
+		frames.putInt(5).put((byte) Constants.ActualMessageType.HAVE.ordinal()).putInt(42);
+		final MessageReader messageReader = new MessageReader(new ChunkedChannel(frames.array(), 3),
+				new BufferPool(4));
+		assertEquals("1001", messageReader.readHandShakeMessage().getPeerId());
+		final MessageView messageView = messageReader.readMessage();
+		assertEquals(42, messageView.getPayloadInt(0));
+		messageView.release();
+		messageReader.close();
+	}
+
+	@Test
+	public void growsForFramesLargerThanItsBuffer() throws IOException {
+		final byte[] payload = new byte[200_000];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) i;
+		}
+		final ByteBuffer frames = ByteBuffer.allocate(4 + 1 + payload.length + 9);
+		frames.putInt(1 + payload.length).put((byte) Constants.ActualMessageType.PIECE.ordinal()).put(payload);
+		frames.putInt(5).put((byte) Constants.ActualMessageType.HAVE.ordinal()).putInt(7);
+		final MessageReader messageReader = new MessageReader(new ChunkedChannel(frames.array(), 50_000),
+				new BufferPool(4));
+		MessageView messageView = messageReader.readMessage();
+		assertArrayEquals(payload, messageView.getPayloadBytes());
+		messageView.release();
+		messageView = messageReader.readMessage();
+		assertEquals(7, messageView.getPayloadInt(0));
+		messageView.release();
+		messageReader.close();
+	}
+
+	@Test
+	public void truncatedFrameIsEndOfStream() {
+		final ByteBuffer frames = ByteBuffer.allocate(7);
+		frames.putInt(5).put((byte) Constants.ActualMessageType.HAVE.ordinal()).put((byte) 0).put((byte) 0);
+		final MessageReader messageReader = new MessageReader(new ChunkedChannel(frames.array(), Integer.MAX_VALUE),
+				new BufferPool(4));
+		assertThrows(EOFException.class, messageReader::readMessage);
+	}
+
+	@Test
+	public void rejectsBadFrameLengthsAndTypes() {
+		final ByteBuffer oversized = ByteBuffer.allocate(9);
+		oversized.putInt(1_000).put((byte) Constants.ActualMessageType.PIECE.ordinal());
+		assertThrows(ProtocolException.class, new MessageReader(new ChunkedChannel(oversized.array(),
+				Integer.MAX_VALUE), new BufferPool(4), 100)::readMessage);
+
+		final ByteBuffer unknownType = ByteBuffer.allocate(5);
+		unknownType.putInt(1).put((byte) 99);
+		assertThrows(ProtocolException.class, new MessageReader(new ChunkedChannel(unknownType.array(),
+				Integer.MAX_VALUE), new BufferPool(4))::readMessage);
+
+		assertThrows(ProtocolException.class, () -> MessageReader.checkFrameLength(0, 100));
+		assertThrows(ProtocolException.class, () -> MessageReader.checkFrameLength(-1, 100));
+	}
+
+	@Test
+	public void rejectsPieceIndexesOutsideTheShare() throws ProtocolException {
+		assertEquals(9, MessageReader.checkPieceIndex(9, 10));
+		assertThrows(ProtocolException.class, () -> MessageReader.checkPieceIndex(10, 10));
+		assertThrows(ProtocolException.class, () -> MessageReader.checkPieceIndex(-1, 10));
+	}
+
+	@Test
+	public void rejectsPayloadsOfTheWrongLength() throws ProtocolException {
+		final ByteBuffer frame = ByteBuffer.allocate(6);
+		frame.putInt(2).put((byte) Constants.ActualMessageType.HAVE.ordinal()).put((byte) 0);
+		final MessageView have = new MessageView().wrap(frame, 4, 2, null);
+		MessageReader.checkPayloadLength(have, 1);
+		assertThrows(ProtocolException.class, () -> MessageReader.checkPayloadLength(have, 4));
+	}
+
+	@Test
+	public void rejectsRequestedRangesOutsideThePiece() throws ProtocolException {
+		final int pieceLength = 2 * Constants.BLOCK_SIZE + 100;
+		MessageReader.checkRequestedRange(2 * Constants.BLOCK_SIZE, 100, pieceLength);
+		MessageReader.checkRequestedRange(10, Constants.BLOCK_SIZE, pieceLength);
+		assertThrows(ProtocolException.class,
+				() -> MessageReader.checkRequestedRange(2 * Constants.BLOCK_SIZE, 101, pieceLength));
+		assertThrows(ProtocolException.class, () -> MessageReader.checkRequestedRange(0, 0, pieceLength));
+		assertThrows(ProtocolException.class,
+				() -> MessageReader.checkRequestedRange(0, Constants.BLOCK_SIZE + 1, pieceLength));
+		assertThrows(ProtocolException.class, () -> MessageReader.checkRequestedRange(-1, 100, pieceLength));
+		// Would wrap around if the end were computed as offset + length
+		assertThrows(ProtocolException.class,
+				() -> MessageReader.checkRequestedRange(Integer.MAX_VALUE, Constants.BLOCK_SIZE, pieceLength));
+	}
+
+	@Test
+	public void acceptsOnlyWholeBlocksAndPieces() throws ProtocolException {
+		final int pieceLength = 2 * Constants.BLOCK_SIZE + 100;
+		MessageReader.checkPieceData(Constants.BLOCK_SIZE, Constants.BLOCK_SIZE, pieceLength, Constants.BLOCK_SIZE);
+		MessageReader.checkPieceData(2 * Constants.BLOCK_SIZE, 100, pieceLength, Constants.BLOCK_SIZE);
+		MessageReader.checkPieceData(0, pieceLength, pieceLength, pieceLength);
+		// Short, misaligned, past the end, or longer than the piece
+		assertThrows(ProtocolException.class,
+				() -> MessageReader.checkPieceData(0, 100, pieceLength, Constants.BLOCK_SIZE));
+		assertThrows(ProtocolException.class,
+				() -> MessageReader.checkPieceData(1, Constants.BLOCK_SIZE, pieceLength, Constants.BLOCK_SIZE));
+		assertThrows(ProtocolException.class,
+				() -> MessageReader.checkPieceData(3 * Constants.BLOCK_SIZE, 100, pieceLength, Constants.BLOCK_SIZE));
+		assertThrows(ProtocolException.class,
+				() -> MessageReader.checkPieceData(0, pieceLength + 1, pieceLength, pieceLength));
+	}
+
+	/*
+	 * Hands out at most chunkSize bytes per read, then end of stream.
+	 */
+	static class ChunkedChannel implements ReadableByteChannel {
+
+		private final byte[] bytes;
+		private final int chunkSize;
+		private int position;
+		private int reads;
+
+		ChunkedChannel(byte[] bytes, int chunkSize) {
+			this.bytes = bytes;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		public int read(ByteBuffer destination) {
+			if (this.position == this.bytes.length) {
+				return -1;
+			}
+			this.reads++;
+			final int count = Math.min(Math.min(destination.remaining(), this.chunkSize),
+					this.bytes.length - this.position);
+			destination.put(this.bytes, this.position, count);
+			this.position += count;
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+}
@@ -0,0 +1,26 @@
+package p2p;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class MetricsTest {
+
+	@Test
+	public void readingThePieceRateDoesNotChangeIt() throws InterruptedException {
+		final Metrics metrics = new Metrics(BufferPool.getDefault());
+		for (int i = 0; i < 10; i++) {
+			metrics.onPieceCompleted();
+		}
+		Thread.sleep(10);
+		metrics.sample();
+		final double piecesPerSecond = metrics.getPiecesPerSecond();
+		assertTrue(piecesPerSecond > 0);
+
+		Thread.sleep(10);
+		metrics.dump();
+		assertEquals(piecesPerSecond, metrics.getPiecesPerSecond());
+	}
+
+}
@@ -0,0 +1,75 @@
+package p2p;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class PeerDirectoryTest {
+
+	private static final long EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+	@Test
+	public void peersOnlyHeardOfAreNotLive() {
+		final PeerDirectory sender = new PeerDirectory("1002");
+		sender.add("1002", "localhost", 6002);
+		sender.add("9999", "localhost", 6999);
+
+		final PeerDirectory peerDirectory = new PeerDirectory("1001");
+		peerDirectory.merge(sender.toPayload(), "1002");
+		peerDirectory.markSeen("1002");
+		assertEquals(Set.of("1002", "9999"), peerDirectory.getPeerIds());
+		assertEquals(Set.of("1002"), peerDirectory.getLivePeerIds(EXPIRY_NANOS));
+	}
+
+	@Test
+	public void peersNotSeenForTheExpiryAreNotLive() throws InterruptedException {
+		final PeerDirectory peerDirectory = new PeerDirectory("1001");
+		peerDirectory.add("1002", "localhost", 6002);
+		peerDirectory.markSeen("1002");
+		peerDirectory.markSeen("1001");
+		assertEquals(Set.of("1002"), peerDirectory.getLivePeerIds(EXPIRY_NANOS));
+
+		Thread.sleep(20);
+		assertTrue(peerDirectory.getLivePeerIds(TimeUnit.MILLISECONDS.toNanos(10)).isEmpty());
+	}
+
+	@Test
+	public void repeatedExchangesCannotGrowTheDirectoryPastItsCap() {
+		final PeerDirectory peerDirectory = new PeerDirectory("1001");
+		peerDirectory.add("1001", "localhost", 6001);
+		peerDirectory.add("1002", "localhost", 6002);
+		peerDirectory.merge(newPayload(2000, 2001), "2000");
+		peerDirectory.markSeen("2000");
+
+		for (int firstPeerId = 3000; firstPeerId < 3000 + 2 * PeerDirectory.MAX_PEERS; firstPeerId += 40) {
+			peerDirectory.merge(newPayload(firstPeerId, firstPeerId + 40), String.valueOf(firstPeerId));
+		}
+		final Set<String> peerIds = peerDirectory.getPeerIds();
+		assertEquals(PeerDirectory.MAX_PEERS - 1, peerIds.size());
+		// Neither the configured peer nor the one that showed up made way for peers only heard of
+		assertTrue(peerIds.contains("1002"));
+		assertTrue(peerIds.contains("2000"));
+		// The sender moving is still taken once the directory is full
+		final PeerDirectory movedSender = new PeerDirectory("2000");
+		movedSender.add("2000", "localhost", 7000);
+		assertEquals(List.of("2000"), peerDirectory.merge(movedSender.toPayload(), "2000"));
+		assertEquals(7000, peerDirectory.getAddress("2000").getPort());
+	}
+
+	/*
+	 * A PEER_EXCHANGE from the first of the given peer IDs that lists all of them.
+	 */
+	private static byte[] newPayload(int firstPeerId, int endPeerId) {
+		final PeerDirectory sender = new PeerDirectory(String.valueOf(firstPeerId));
+		for (int peerId = firstPeerId; peerId < endPeerId; peerId++) {
+			sender.add(String.valueOf(peerId), "localhost", peerId);
+		}
+		return sender.toPayload();
+	}
+
+}
@@ -0,0 +1,94 @@
+package p2p;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+
+import org.junit.jupiter.api.Test;
+
+public class PieceAvailabilityTest {
+
+	private static final int NO_OF_PIECES = 64;
+
+	@Test
+	public void countsFollowBitFieldsAndHaves() {
+		final PieceAvailability pieceAvailability = new PieceAvailability(NO_OF_PIECES);
+		final BitSet bitSet = new BitSet();
+		bitSet.set(0, 10);
+		final CompactBitField bitField = CompactBitField.of(bitSet, NO_OF_PIECES);
+		pieceAvailability.addBitField(bitField);
+		pieceAvailability.addBitField(bitField);
+		pieceAvailability.increment(3);
+		assertEquals(3, pieceAvailability.getCount(3));
+		assertEquals(2, pieceAvailability.getCount(9));
+		assertEquals(0, pieceAvailability.getCount(10));
+
+		pieceAvailability.removeBitField(bitField);
+		assertEquals(2, pieceAvailability.getCount(3));
+		assertEquals(1, pieceAvailability.getCount(9));
+		// A neighbor that leaves cannot take a count below zero
+		pieceAvailability.decrement(10);
+		assertEquals(0, pieceAvailability.getCount(10));
+	}
+
+	@Test
+	public void selectsTheRarestCandidate() {
+		// Piece 40 is held by one neighbor, every other one by two to four
+		final PieceAvailability pieceAvailability = this
+				.availabilityWithCountsOf(pieceIndex -> pieceIndex == 40 ? 1 : pieceIndex % 3 + 2);
+
+		final BitSet allPieces = new BitSet();
+		allPieces.set(0, NO_OF_PIECES);
+		assertEquals(40, pieceAvailability.selectRarest(allPieces));
+
+		// Few candidates take the scan over the candidates rather than the buckets
+		final BitSet fewCandidates = new BitSet();
+		fewCandidates.set(6);
+		fewCandidates.set(13);
+		assertEquals(6, pieceAvailability.selectRarest(fewCandidates));
+
+		assertEquals(-1, pieceAvailability.selectRarest(new BitSet()));
+	}
+
+	@Test
+	public void selectsCandidatesNoNeighborIsCountedFor() {
+		final PieceAvailability pieceAvailability = this
+				.availabilityWithCountsOf(pieceIndex -> pieceIndex == 20 ? 0 : 1);
+		final BitSet allPieces = new BitSet();
+		allPieces.set(0, NO_OF_PIECES);
+		assertEquals(20, pieceAvailability.selectRarest(allPieces));
+
+		final BitSet uncounted = new BitSet();
+		uncounted.set(20);
+		assertEquals(20, pieceAvailability.selectRarest(uncounted));
+	}
+
+	@Test
+	public void breaksTiesAtRandom() {
+		final PieceAvailability pieceAvailability = this.availabilityWithCountsOf(pieceIndex -> pieceIndex < 8 ? 1 : 2);
+		final BitSet allPieces = new BitSet();
+		allPieces.set(0, NO_OF_PIECES);
+		final Set<Integer> selected = new HashSet<>();
+		for (int i = 0; i < 1_000; i++) {
+			final int pieceIndex = pieceAvailability.selectRarest(allPieces);
+			assertTrue(pieceIndex < 8);
+			selected.add(pieceIndex);
+		}
+		assertTrue(selected.size() > 1);
+	}
+
+	private PieceAvailability availabilityWithCountsOf(IntUnaryOperator count) {
+		final PieceAvailability pieceAvailability = new PieceAvailability(NO_OF_PIECES);
+		for (int pieceIndex = 0; pieceIndex < NO_OF_PIECES; pieceIndex++) {
+			for (int i = 0; i < count.applyAsInt(pieceIndex); i++) {
+				pieceAvailability.increment(pieceIndex);
+			}
+		}
+		return pieceAvailability;
+	}
+
+}
@@ -0,0 +1,74 @@
+package p2p;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+public class PieceClaimTableTest {
+
+	private final Object owner = new Object();
+	private final Object other = new Object();
+
+	@Test
+	public void claimIsExclusiveUntilReleased() {
+		final PieceClaimTable pieceClaimTable = new PieceClaimTable(100, 60_000);
+		assertTrue(pieceClaimTable.tryClaim(7, this.owner));
+		assertTrue(pieceClaimTable.isClaimed(7));
+		assertFalse(pieceClaimTable.tryClaim(7, this.other));
+
+		pieceClaimTable.release(7);
+		assertFalse(pieceClaimTable.isClaimed(7));
+		assertTrue(pieceClaimTable.tryClaim(7, this.other));
+	}
+
+	@Test
+	public void onlyTheOwnerReleasesItsClaim() {
+		final PieceClaimTable pieceClaimTable = new PieceClaimTable(100, 60_000);
+		assertTrue(pieceClaimTable.tryClaim(3, this.owner));
+
+		// An endgame duplicate requested by another connection must not free the claim
+		assertFalse(pieceClaimTable.release(3, this.other));
+		assertTrue(pieceClaimTable.isClaimed(3));
+
+		assertTrue(pieceClaimTable.release(3, this.owner));
+		assertFalse(pieceClaimTable.isClaimed(3));
+		assertFalse(pieceClaimTable.release(3, this.owner));
+	}
+
+	@Test
+	public void staleClaimIsTakenOverAndKeptFromItsFormerOwner() throws InterruptedException {
+		final PieceClaimTable pieceClaimTable = new PieceClaimTable(100, 200);
+		assertTrue(pieceClaimTable.tryClaim(5, this.owner));
+		assertFalse(pieceClaimTable.tryClaim(5, this.other));
+
+		Thread.sleep(300);
+		assertFalse(pieceClaimTable.isClaimed(5));
+		assertTrue(pieceClaimTable.tryClaim(5, this.other));
+
+		// The connection that abandoned it is choked later and releases what it had outstanding
+		assertFalse(pieceClaimTable.release(5, this.owner));
+		assertTrue(pieceClaimTable.isClaimed(5));
+	}
+
+	@Test
+	public void clearClaimedLeavesUnclaimedAndStalePieces() throws InterruptedException {
+		final PieceClaimTable pieceClaimTable = new PieceClaimTable(130, 200);
+		assertTrue(pieceClaimTable.tryClaim(1, this.owner));
+		Thread.sleep(300);
+		assertTrue(pieceClaimTable.tryClaim(64, this.owner));
+		assertTrue(pieceClaimTable.tryClaim(129, this.other));
+
+		final BitSet candidates = new BitSet();
+		candidates.set(0, 130);
+		pieceClaimTable.clearClaimed(candidates);
+		assertEquals(128, candidates.cardinality());
+		assertTrue(candidates.get(1));
+		assertFalse(candidates.get(64));
+		assertFalse(candidates.get(129));
+	}
+
+}